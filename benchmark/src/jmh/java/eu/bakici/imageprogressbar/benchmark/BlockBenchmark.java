@@ -0,0 +1,87 @@
+package eu.bakici.imageprogressbar.benchmark;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.RasterOps;
+
+/**
+ * The block table of {@code BlockIndicator.onPreProgress} and the per-frame block
+ * reveal of {@code RandomBlockIndicator}, for each of the block size constants.
+ */
+@State(Scope.Thread)
+public class BlockBenchmark {
+
+    @Param({Images.THUMBNAIL, Images.VGA, Images.FULL_HD, Images.TWELVE_MP})
+    public String size;
+
+    /**
+     * BLOCK_SIZE_BIG, BLOCK_SIZE_MEDIUM, BLOCK_SIZE_SMALL and BLOCK_SIZE_EXTRA_SMALL.
+     */
+    @Param({"60", "50", "30", "20"})
+    public int blockSize;
+
+    private IntRaster source;
+    private IntRaster frame;
+    private int[] bounds;
+    private List<Integer> order;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        source = Images.create(size);
+        frame = new IntRaster(source.getWidth(), source.getHeight());
+        RasterOps.grayscale(source, frame);
+        bounds = RasterOps.sliceBlocks(source.getWidth(), source.getHeight(), blockSize);
+        order = shuffledOrder(bounds.length / 4);
+    }
+
+    @Benchmark
+    public List<Integer> onPreProgress() {
+        final IntRaster gray = new IntRaster(source.getWidth(), source.getHeight());
+        RasterOps.grayscale(source, gray);
+        final int[] blocks = RasterOps.sliceBlocks(source.getWidth(), source.getHeight(), blockSize);
+        return shuffledOrder(blocks.length / 4);
+    }
+
+    @Benchmark
+    public IntRaster revealBlock() {
+        final int block = order.get(next) * 4;
+        next = (next + 1) % order.size();
+        RasterOps.copyRect(source, frame, bounds[block], bounds[block + 1], bounds[block + 2], bounds[block + 3]);
+        return frame;
+    }
+
+    private static List<Integer> shuffledOrder(final int blockSum) {
+        final List<Integer> order = new ArrayList<>(blockSum);
+        for (int i = 0; i < blockSum; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order);
+        return order;
+    }
+}
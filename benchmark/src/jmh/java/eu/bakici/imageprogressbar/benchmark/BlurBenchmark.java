@@ -0,0 +1,54 @@
+package eu.bakici.imageprogressbar.benchmark;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.RasterOps;
+
+/**
+ * The StackBlur fallback of {@code Blur.fastblur}. {@code BlurIndicator} uses radii
+ * from 25 (no progress) down to 1.
+ */
+@State(Scope.Thread)
+public class BlurBenchmark {
+
+    @Param({Images.THUMBNAIL, Images.VGA, Images.FULL_HD, Images.TWELVE_MP})
+    public String size;
+
+    @Param({"1", "5", "10", "15", "20", "25"})
+    public int radius;
+
+    private IntRaster source;
+
+    @Setup
+    public void setUp() {
+        source = Images.create(size);
+    }
+
+    @Benchmark
+    public IntRaster fastblur() {
+        final IntRaster blurred = new IntRaster(source.getWidth(), source.getHeight());
+        RasterOps.stackBlur(source, blurred, radius);
+        return blurred;
+    }
+}
@@ -0,0 +1,51 @@
+package eu.bakici.imageprogressbar.benchmark;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.RasterOps;
+
+/**
+ * The grayscale base every color indicator builds in {@code onPreProgress},
+ * see {@code IndicatorUtils.convertGrayscale}.
+ */
+@State(Scope.Thread)
+public class GrayscaleBenchmark {
+
+    @Param({Images.THUMBNAIL, Images.VGA, Images.FULL_HD, Images.TWELVE_MP})
+    public String size;
+
+    private IntRaster source;
+
+    @Setup
+    public void setUp() {
+        source = Images.create(size);
+    }
+
+    @Benchmark
+    public IntRaster convertGrayscale() {
+        final IntRaster gray = new IntRaster(source.getWidth(), source.getHeight());
+        RasterOps.grayscale(source, gray);
+        return gray;
+    }
+}
@@ -0,0 +1,71 @@
+package eu.bakici.imageprogressbar.benchmark;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Random;
+
+import eu.bakici.imageprogressbar.raster.IntRaster;
+
+/**
+ * Deterministic test images for the benchmarks.
+ */
+final class Images {
+
+    /**
+     * The image sizes every suite runs with, from a list thumbnail up to a 12 MP photo.
+     */
+    static final String THUMBNAIL = "128x128";
+    static final String VGA = "640x480";
+    static final String FULL_HD = "1920x1080";
+    static final String TWELVE_MP = "4000x3000";
+
+    private static final long SEED = 42;
+
+    private Images() {
+    }
+
+    /**
+     * Creates a photo-like image: smooth gradients with some noise on top.
+     *
+     * @param size the size in the form {@code <width>x<height>}.
+     */
+    static IntRaster create(final String size) {
+        final IntRaster raster = new IntRaster(width(size), height(size));
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final int[] pixels = raster.getData();
+        final Random random = new Random(SEED);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int noise = random.nextInt(32);
+                final int r = (x * 223 / Math.max(width, 1) + noise) & 0xff;
+                final int g = (y * 223 / Math.max(height, 1) + noise) & 0xff;
+                final int b = ((x + y) * 111 / Math.max(width + height, 1) + noise) & 0xff;
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return raster;
+    }
+
+    static int width(final String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int height(final String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+}
@@ -0,0 +1,74 @@
+package eu.bakici.imageprogressbar.benchmark;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.RasterOps;
+
+/**
+ * The per-frame {@code onProgress} work of the synchronous indicators. Every invocation
+ * renders the next percent, so one sweep from 0 to 100 is averaged over.
+ */
+@State(Scope.Thread)
+public class ProgressBenchmark {
+
+    @Param({Images.THUMBNAIL, Images.VGA, Images.FULL_HD, Images.TWELVE_MP})
+    public String size;
+
+    private IntRaster source;
+    private IntRaster gray;
+    private IntRaster frame;
+    private int percent;
+
+    @Setup
+    public void setUp() {
+        source = Images.create(size);
+        gray = new IntRaster(source.getWidth(), source.getHeight());
+        RasterOps.grayscale(source, gray);
+        frame = new IntRaster(source.getWidth(), source.getHeight());
+    }
+
+    @Benchmark
+    public IntRaster colorFill() {
+        final int right = Math.round(source.getWidth() * nextPercent() / 100f);
+        RasterOps.composeRect(gray, source, frame, 0, 0, right, source.getHeight());
+        return frame;
+    }
+
+    @Benchmark
+    public IntRaster alpha() {
+        RasterOps.blend(gray, source, Math.round(255 * nextPercent() / 100f), frame);
+        return frame;
+    }
+
+    @Benchmark
+    public IntRaster circular() {
+        RasterOps.sweep(gray, source, 270, Math.round(360 * nextPercent() / 100f), frame);
+        return frame;
+    }
+
+    private int nextPercent() {
+        percent = (percent + 1) % 101;
+        return percent;
+    }
+}
@@ -0,0 +1,59 @@
+package eu.bakici.imageprogressbar.benchmark;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import eu.bakici.imageprogressbar.raster.Raster;
+
+/**
+ * Counts the pixels that are read from a raster.
+ */
+final class CountingRaster implements Raster {
+
+    private final Raster raster;
+    private long pixelsRead;
+
+    CountingRaster(final Raster raster) {
+        this.raster = raster;
+    }
+
+    long getPixelsRead() {
+        return pixelsRead;
+    }
+
+    @Override
+    public int getWidth() {
+        return raster.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return raster.getHeight();
+    }
+
+    @Override
+    public void getPixels(final int[] pixels, final int offset, final int stride,
+                          final int x, final int y, final int width, final int height) {
+        pixelsRead += (long) width * height;
+        raster.getPixels(pixels, offset, stride, x, y, width, height);
+    }
+
+    @Override
+    public void setPixels(final int[] pixels, final int offset, final int stride,
+                          final int x, final int y, final int width, final int height) {
+        raster.setPixels(pixels, offset, stride, x, y, width, height);
+    }
+}
@@ -0,0 +1,183 @@
+package eu.bakici.imageprogressbar.benchmark;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import eu.bakici.imageprogressbar.raster.AlphaRenderer;
+import eu.bakici.imageprogressbar.raster.BlockRenderer;
+import eu.bakici.imageprogressbar.raster.BlurRenderer;
+import eu.bakici.imageprogressbar.raster.CircularRenderer;
+import eu.bakici.imageprogressbar.raster.ColorFillRenderer;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.PixelizeRenderer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sweeps the renderer of every built-in indicator from 0 to 100 percent and through random
+ * progress jumps, and fails when a single update exceeds its budget:
+ * <ul>
+ * <li>allocation: after warm-up an update must not allocate more than a few small objects,
+ * so a full-size buffer per frame is caught.</li>
+ * <li>work: renderers that only change a band between the old and the new progress must
+ * not read more source pixels than that band has, the others not more than one frame.</li>
+ * </ul>
+ * The frames of the Android indicators around the renderers are checked by the
+ * {@code FrameBudgetTest} of the library.
+ */
+public class FrameBudgetTest {
+
+    private static final String SIZE = Images.VGA;
+
+    private static final int JUMPS = 200;
+
+    private static final long SEED = 7;
+
+    /**
+     * Bytes a single update may allocate once the renderer has been warmed up.
+     */
+    private static final long MAX_BYTES_PER_UPDATE = 1024;
+
+    /**
+     * Source pixels an update of a renderer that changes the whole frame may read, in frames.
+     */
+    private static final double MAX_FRAMES_READ_PER_UPDATE = 1.0;
+
+    /**
+     * How much the band of a banded renderer may exceed the share of the progress step.
+     * Blocks at the edges are clipped or empty, so a percent of the blocks covers up to a
+     * fifth more than a percent of the pixels.
+     */
+    private static final double BAND_SLACK = 1.2;
+
+    /**
+     * Rounding of the band edges to whole rows, columns and blocks, in frames.
+     */
+    private static final double BAND_TOLERANCE = 0.02;
+
+    @Test
+    public void colorFill() {
+        assertWithinBudget("ColorFill left-right", new ColorFillRenderer(ColorFillRenderer.LEFT_RIGHT), true);
+        assertWithinBudget("ColorFill right-left", new ColorFillRenderer(ColorFillRenderer.RIGHT_LEFT), true);
+        assertWithinBudget("ColorFill top-down", new ColorFillRenderer(ColorFillRenderer.TOP_DOWN), true);
+        assertWithinBudget("ColorFill bottom-up", new ColorFillRenderer(ColorFillRenderer.BOTTOM_UP), true);
+    }
+
+    @Test
+    public void alpha() {
+        assertWithinBudget("Alpha", new AlphaRenderer(), false);
+    }
+
+    @Test
+    public void circular() {
+        assertWithinBudget("Circular clockwise", new CircularRenderer(true), false);
+        assertWithinBudget("Circular counterclockwise", new CircularRenderer(false), false);
+    }
+
+    @Test
+    public void randomBlock() {
+        for (final int blockSize : new int[]{60, 50, 30, 20}) {
+            assertWithinBudget("RandomBlock " + blockSize, new BlockRenderer(blockSize), true);
+        }
+    }
+
+    @Test
+    public void blur() {
+        assertWithinBudget("Blur", new BlurRenderer(), false);
+    }
+
+    @Test
+    public void pixelize() {
+        assertWithinBudget("Pixelize", new PixelizeRenderer(), false);
+    }
+
+    /**
+     * @param banded true if an update only changes the band between the old and the new
+     *               progress, the pixels it reads are checked against that band.
+     */
+    private static void assertWithinBudget(final String name, final FrameRenderer renderer, final boolean banded) {
+        final int[] progress = progressSequence();
+        final CountingRaster source = new CountingRaster(Images.create(SIZE));
+        final IntRaster target = new IntRaster(source.getWidth(), source.getHeight());
+        renderer.prepare(source);
+        if (renderer instanceof BlockRenderer) {
+            ((BlockRenderer) renderer).shuffle(new Random(SEED));
+        }
+        renderer.renderBase(target);
+
+        // warm-up, lazily created buffers are allowed here
+        for (final int percent : progress) {
+            renderer.render(percent, target);
+        }
+
+        // what reading the allocated bytes allocates itself
+        final long probeStart = allocatedBytes();
+        final long probeEnd = allocatedBytes();
+        final long overhead = probeEnd - probeStart;
+        final double framePixels = (double) source.getWidth() * source.getHeight();
+        int previous = progress[progress.length - 1];
+        long maxBytes = 0;
+        double maxExcess = Double.NEGATIVE_INFINITY;
+        String worst = null;
+        for (final int percent : progress) {
+            final long readBefore = source.getPixelsRead();
+            final long bytesBefore = allocatedBytes();
+            renderer.render(percent, target);
+            final long bytes = allocatedBytes() - bytesBefore - overhead;
+            maxBytes = Math.max(maxBytes, bytes);
+            final double framesRead = (source.getPixelsRead() - readBefore) / framePixels;
+            final double budget = banded
+                    ? Math.abs(percent - previous) / 100.0 * BAND_SLACK + BAND_TOLERANCE
+                    : MAX_FRAMES_READ_PER_UPDATE;
+            if (framesRead - budget > maxExcess) {
+                maxExcess = framesRead - budget;
+                worst = previous + "% to " + percent + "% read " + framesRead + " frames, the budget is " + budget;
+            }
+            previous = percent;
+        }
+        renderer.release();
+
+        assertTrue(name + ": an update allocated " + maxBytes + " bytes, the budget is " + MAX_BYTES_PER_UPDATE,
+                maxBytes <= MAX_BYTES_PER_UPDATE);
+        assertTrue(name + ": the update from " + worst, maxExcess <= 0);
+    }
+
+    /**
+     * 0 to 100 in single steps, followed by random jumps forth and back.
+     */
+    private static int[] progressSequence() {
+        final int[] progress = new int[101 + JUMPS];
+        for (int i = 0; i <= 100; i++) {
+            progress[i] = i;
+        }
+        final Random random = new Random(SEED);
+        for (int i = 101; i < progress.length; i++) {
+            progress[i] = random.nextInt(101);
+        }
+        return progress;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
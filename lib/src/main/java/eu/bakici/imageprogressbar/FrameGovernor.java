@@ -0,0 +1,98 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import eu.bakici.imageprogressbar.utils.RenderPolicy;
+
+/**
+ * Limits how often the progress of one view is rendered. The interval between two renders
+ * is the measured render time divided by the share of a CPU the view may take, so cheap
+ * indicators render every update and expensive ones fewer of them. Times are taken from
+ * {@link System#nanoTime()}, which does not jump with the wall clock. While the device saves
+ * power, the share is lowered by the {@link RenderPolicy}.
+ * <p>
+ * Main thread only.
+ */
+final class FrameGovernor {
+
+    /**
+     * By default a view keeps a render thread busy at most half of the time.
+     */
+    static final float DEFAULT_CPU_SHARE = 0.5f;
+
+    private float cpuShare = DEFAULT_CPU_SHARE;
+
+    /**
+     * The smoothed time of a render, 0 until the first one is measured.
+     */
+    private long costNanos;
+
+    private long lastStartNanos;
+
+    private boolean started;
+
+    /**
+     * @param share the share of a CPU, greater than 0 and at most 1. 1 renders as often
+     *              as the indicator can.
+     */
+    void setCpuShare(final float share) {
+        if (share <= 0 || share > 1) {
+            throw new IllegalArgumentException("the cpu share must be greater than 0 and at most 1");
+        }
+        cpuShare = share;
+    }
+
+    float getCpuShare() {
+        return cpuShare;
+    }
+
+    /**
+     * @return the milliseconds until the next render may start, 0 if it may start now.
+     */
+    long getDelayMillis() {
+        if (!started || costNanos == 0) {
+            return 0;
+        }
+        final long interval = (long) (costNanos / (cpuShare * RenderPolicy.getCurrentCpuShareFactor()));
+        final long remaining = lastStartNanos + interval - System.nanoTime();
+        // rounded up, a render that is started too early would only be delayed again
+        return remaining > 0 ? (remaining + 999999) / 1000000 : 0;
+    }
+
+    /**
+     * Called when a render is handed to the indicator.
+     */
+    void onRenderStarted() {
+        lastStartNanos = System.nanoTime();
+        started = true;
+    }
+
+    /**
+     * Records the time a render took.
+     */
+    void onRendered(final long nanos) {
+        costNanos = costNanos == 0 ? nanos : (costNanos + nanos) / 2;
+    }
+
+    /**
+     * Forgets the measured renders, e.g. for a new indicator or image.
+     */
+    void reset() {
+        costNanos = 0;
+        started = false;
+    }
+}
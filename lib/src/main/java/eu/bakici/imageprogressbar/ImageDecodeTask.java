@@ -0,0 +1,121 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import eu.bakici.imageprogressbar.utils.BitmapDecoder;
+import eu.bakici.imageprogressbar.utils.BitmapPool;
+
+/**
+ * Decodes the image of a resource or an uri off the main thread, subsampled to the size it is
+ * shown at and into a pooled bitmap where possible. If it is no bitmap, e.g. a vector
+ * resource, the result is {@code null} and the view loads it the way the ImageView does.
+ */
+class ImageDecodeTask extends AsyncTask<Void, Void, Bitmap> {
+
+    private static final String TAG = ImageDecodeTask.class.getSimpleName();
+
+    private final ProgressImageView view;
+
+    private final BitmapDecoder.StreamOpener opener;
+
+    private final int resId;
+
+    private final Uri uri;
+
+    private final int reqWidth;
+
+    private final int reqHeight;
+
+    private ImageDecodeTask(final ProgressImageView view, final BitmapDecoder.StreamOpener opener,
+                            final int resId, @Nullable final Uri uri, final int reqWidth, final int reqHeight) {
+        this.view = view;
+        this.opener = opener;
+        this.resId = resId;
+        this.uri = uri;
+        this.reqWidth = reqWidth;
+        this.reqHeight = reqHeight;
+    }
+
+    static ImageDecodeTask forResource(final ProgressImageView view, final Resources resources,
+                                       final int resId, final int reqWidth, final int reqHeight) {
+        return new ImageDecodeTask(view, new BitmapDecoder.StreamOpener() {
+            @Override
+            public InputStream open() {
+                return resources.openRawResource(resId);
+            }
+        }, resId, null, reqWidth, reqHeight);
+    }
+
+    static ImageDecodeTask forUri(final ProgressImageView view, final ContentResolver resolver,
+                                  final Uri uri, final int reqWidth, final int reqHeight) {
+        return new ImageDecodeTask(view, new BitmapDecoder.StreamOpener() {
+            @Override
+            public InputStream open() throws IOException {
+                return resolver.openInputStream(uri);
+            }
+        }, 0, uri, reqWidth, reqHeight);
+    }
+
+    /**
+     * @return the decoded resource, 0 if an uri is decoded.
+     */
+    int getResId() {
+        return resId;
+    }
+
+    /**
+     * @return the decoded uri, {@code null} if a resource is decoded.
+     */
+    @Nullable
+    Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    protected Bitmap doInBackground(final Void... params) {
+        try {
+            return BitmapDecoder.decodeSampled(opener, reqWidth, reqHeight, BitmapPool.getInstance());
+        } catch (Exception e) {
+            // the view tries again the way the ImageView does, which reports the failure
+            Log.w(TAG, "decoding the image in the background failed", e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(final Bitmap bitmap) {
+        view.onImageDecoded(this, bitmap);
+    }
+
+    @Override
+    protected void onCancelled(final Bitmap bitmap) {
+        if (bitmap != null) {
+            BitmapPool.getInstance().release(bitmap);
+        }
+    }
+}
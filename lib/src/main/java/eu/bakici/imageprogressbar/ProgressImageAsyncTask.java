@@ -0,0 +1,120 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+
+import eu.bakici.imageprogressbar.indicator.ProgressIndicator;
+import eu.bakici.imageprogressbar.raster.CancellationToken;
+
+/**
+ * Runs a pre progress or a progress call of an indicator on a render executor and reports
+ * back on the main thread.
+ */
+class ProgressImageAsyncTask extends AsyncTask<Bitmap, Void, Void> {
+
+
+    private final ProgressIndicator mIndicator;
+    private final float mProgress;
+    private final boolean mIsPreProgress;
+    private final boolean mIsSourceUpdate;
+    private final OnPostExecuteListener<Void> mListener;
+    private final CancellationToken mToken = new CancellationToken();
+    private volatile boolean mStarted;
+    private volatile long mRenderNanos;
+
+    public ProgressImageAsyncTask(final ProgressIndicator indicator,
+                                  final float progress,
+                                  boolean preProgress,
+                                  OnPostExecuteListener<Void> listener) {
+        this(indicator, progress, preProgress, false, listener);
+    }
+
+    private ProgressImageAsyncTask(final ProgressIndicator indicator,
+                                   final float progress,
+                                   final boolean preProgress,
+                                   final boolean sourceUpdate,
+                                   final OnPostExecuteListener<Void> listener) {
+        mIndicator = indicator;
+        mProgress = progress;
+        mIsPreProgress = preProgress;
+        mIsSourceUpdate = sourceUpdate;
+        mListener = listener;
+    }
+
+    /**
+     * @return a task that hands the new pixels of the original bitmap to the prepared
+     * indicator, see {@link ProgressIndicator#onSourceUpdated(Bitmap)}.
+     */
+    static ProgressImageAsyncTask forSourceUpdate(final ProgressIndicator indicator,
+                                                  final OnPostExecuteListener<Void> listener) {
+        return new ProgressImageAsyncTask(indicator, 0, true, true, listener);
+    }
+
+    /**
+     * Cancels the task and the render it runs.
+     */
+    void cancelRender() {
+        mToken.cancel();
+        cancel(false);
+    }
+
+    /**
+     * @return true once the task has left the queue of the executor.
+     */
+    boolean isStarted() {
+        return mStarted;
+    }
+
+    @Override
+    protected Void doInBackground(final Bitmap... params) {
+        mStarted = true;
+        final Bitmap bitmap = params[0];
+        if (mIsSourceUpdate) {
+            mIndicator.onSourceUpdated(bitmap, mToken);
+        } else if (mIsPreProgress) {
+            mIndicator.onPreProgress(bitmap, mToken);
+        } else {
+            final long start = System.nanoTime();
+            mIndicator.onProgressFraction(bitmap, mProgress, mToken);
+            mRenderNanos = System.nanoTime() - start;
+        }
+        return null;
+    }
+
+    /**
+     * @return the time the progress call took, 0 if it has not completed.
+     */
+    long getRenderNanos() {
+        return mRenderNanos;
+    }
+
+    @Override
+    protected final void onPostExecute(final Void result) {
+        mListener.onFinished(this);
+        // the listener shows the latest frame, a later task may have published one already
+        mListener.onPostExecute(null);
+    }
+
+    @Override
+    protected void onCancelled() {
+        mListener.onFinished(this);
+    }
+
+
+}
@@ -0,0 +1,610 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import eu.bakici.imageprogressbar.indicator.ProgressIndicator;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.utils.BitmapPool;
+import eu.bakici.imageprogressbar.utils.IndicatorUtils;
+
+/**
+ * Shows many small images with their progress in a grid of square cells, e.g. the thumbnails
+ * of a catalog that are downloading. Instead of a view and several bitmaps per image, the
+ * cells are drawn from one bitmap per row of the grid. Every cell has a {@link FrameRenderer}
+ * working on the center of the image scaled down to the cell size, and only the cells whose
+ * progress or image has changed are rendered again.
+ * <p>
+ * The cells are prepared and rendered into their own frames on the threads of the
+ * {@link RenderCoordinator}, one batch of changed cells at a time. The main thread copies
+ * the finished cells into their rows, so a row bitmap is never written while it is drawn,
+ * and only the rows with changed cells are uploaded again.
+ */
+public class ProgressImageGridView extends View {
+
+    private static final int DEFAULT_COLUMNS = 4;
+
+    /**
+     * Creates the renderers of the cells, see {@link #setRendererFactory(RendererFactory)}.
+     */
+    public interface RendererFactory {
+
+        /**
+         * Called on a render thread, every call returns a new renderer.
+         */
+        FrameRenderer create();
+    }
+
+    /**
+     * Creates the renderer of every cell.
+     */
+    private RendererFactory rendererFactory;
+
+    private final List<Cell> cells = new ArrayList<>();
+
+    /**
+     * The cells that have to be rendered with the next batch.
+     */
+    private final BitSet dirty = new BitSet();
+
+    private int columns = DEFAULT_COLUMNS;
+
+    private int maximum = 100;
+
+    private int cellSize;
+
+    private boolean attached;
+
+    /**
+     * Set while a batch renders, the cells that change meanwhile are rendered with the next one.
+     */
+    private boolean batchRunning;
+
+    private boolean batchPosted;
+
+    /**
+     * Hold the frames of the cells of one row each, only used on the main thread.
+     */
+    private Bitmap[] rows;
+
+    /**
+     * Incremented with every new set of rows, the cells of a batch for replaced rows are
+     * dropped.
+     */
+    private int rowsGeneration;
+
+    /**
+     * Cleared pixels of a cell.
+     */
+    private int[] emptyCell;
+
+    /**
+     * The area of the cells that have been copied since the last frame, in view coordinates.
+     */
+    private final Rect invalidRect = new Rect();
+
+    private volatile float renderPriority;
+
+    /**
+     * The memory of the prepared cells, only changed on the render threads.
+     */
+    private volatile long renderByteCount;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final RenderCoordinator.Client renderClient = new RenderCoordinator.Client() {
+        @Override
+        public float getRenderPriority() {
+            return renderPriority;
+        }
+
+        @Override
+        public long getRenderByteCount() {
+            return renderByteCount;
+        }
+
+        @Override
+        public void onReleaseRenderMemory() {
+            if (renderPriority < RenderCoordinator.PRIORITY_VISIBLE) {
+                releaseCells(cells);
+                // prepared again once the grid shows
+                dirty.set(0, cells.size());
+            }
+        }
+
+        @Override
+        public void onFrame() {
+            if (!invalidRect.isEmpty()) {
+                invalidate(invalidRect.left, invalidRect.top, invalidRect.right, invalidRect.bottom);
+                invalidRect.setEmpty();
+            }
+        }
+    };
+
+    private final Executor renderExecutor = RenderCoordinator.getInstance().getExecutor(renderClient);
+
+    private final Runnable startBatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            batchPosted = false;
+            startBatch();
+        }
+    };
+
+    public ProgressImageGridView(final Context context) {
+        this(context, null);
+    }
+
+    public ProgressImageGridView(final Context context, final AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public ProgressImageGridView(final Context context, final AttributeSet attrs, final int defStyle) {
+        super(context, attrs, defStyle);
+    }
+
+    /**
+     * Shows the progress of the cells like the given indicator, with the renderers it creates
+     * with {@link ProgressIndicator#createFrameRenderer()}. The indicator itself is not
+     * prepared, one instance serves all cells.
+     */
+    public void setProgressIndicator(final ProgressIndicator indicator) {
+        setRendererFactory(new RendererFactory() {
+            @Override
+            public FrameRenderer create() {
+                return indicator.createFrameRenderer();
+            }
+        });
+    }
+
+    /**
+     * Sets the factory of the renderers that show the progress of the cells, e.g. one that
+     * returns a new {@link eu.bakici.imageprogressbar.raster.ColorFillRenderer}.
+     */
+    public void setRendererFactory(final RendererFactory factory) {
+        rendererFactory = factory;
+        // the cells are prepared again with renderers of the new factory
+        invalidateAllCells();
+    }
+
+    public void setColumnCount(final int columns) {
+        this.columns = Math.max(1, columns);
+        requestLayout();
+    }
+
+    public int getColumnCount() {
+        return columns;
+    }
+
+    public void setItemCount(final int count) {
+        if (cells.size() > count) {
+            final List<Cell> removed = cells.subList(count, cells.size());
+            releaseCells(removed);
+            removed.clear();
+        }
+        while (cells.size() < count) {
+            cells.add(new Cell());
+        }
+        requestLayout();
+        invalidateAllCells();
+    }
+
+    public int getItemCount() {
+        return cells.size();
+    }
+
+    public void setMaximum(final int max) {
+        maximum = max;
+        invalidateAllCells();
+    }
+
+    public int getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @param image the image of the cell, {@code null} to leave it empty.
+     */
+    public void setImage(final int position, @Nullable final Bitmap image) {
+        final Cell cell = cells.get(position);
+        cell.image = image;
+        // prepared again even if it is the same bitmap, its pixels may have changed
+        cell.imageVersion++;
+        invalidateCell(position);
+    }
+
+    public void setProgress(final int position, final int progress) {
+        final Cell cell = cells.get(position);
+        if (cell.progress != progress) {
+            cell.progress = progress;
+            invalidateCell(position);
+        }
+    }
+
+    public int getProgress(final int position) {
+        return cells.get(position).progress;
+    }
+
+    @Override
+    protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+        final int width = MeasureSpec.getSize(widthMeasureSpec);
+        final int size = Math.max(0, (width - getPaddingLeft() - getPaddingRight()) / columns);
+        final int rows = (cells.size() + columns - 1) / columns;
+        final int height = resolveSize(rows * size + getPaddingTop() + getPaddingBottom(), heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // the cells are prepared again if the size has changed
+        cellSize = Math.max(0, (w - getPaddingLeft() - getPaddingRight()) / columns);
+        invalidateAllCells();
+    }
+
+    @Override
+    protected void onDraw(final Canvas canvas) {
+        super.onDraw(canvas);
+        if (rows != null) {
+            for (int i = 0; i < rows.length; i++) {
+                canvas.drawBitmap(rows[i], getPaddingLeft(), getPaddingTop() + i * cellSize, null);
+            }
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        updateRenderPriority();
+        RenderCoordinator.getInstance().add(renderClient);
+        invalidateAllCells();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        attached = false;
+        updateRenderPriority();
+        RenderCoordinator.getInstance().remove(renderClient);
+        handler.removeCallbacks(startBatchRunnable);
+        batchPosted = false;
+        releaseCells(cells);
+        releaseRows();
+        dirty.set(0, cells.size());
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull final View changedView, final int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateRenderPriority();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(final int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateRenderPriority();
+    }
+
+    /**
+     * The grid renders like a visible view while it shows, hidden grids render nothing and
+     * may give their memory back.
+     */
+    private void updateRenderPriority() {
+        final boolean visible = attached && getWindowVisibility() == VISIBLE && isShown();
+        renderPriority = visible ? RenderCoordinator.PRIORITY_VISIBLE + 1 : 0;
+        if (visible) {
+            scheduleBatch();
+        } else if (attached) {
+            RenderCoordinator.getInstance().onMemoryChanged();
+        }
+    }
+
+    private void invalidateCell(final int position) {
+        dirty.set(position);
+        scheduleBatch();
+    }
+
+    private void invalidateAllCells() {
+        dirty.set(0, cells.size());
+        scheduleBatch();
+    }
+
+    /**
+     * Starts a batch with the next pass of the main thread, so that the changes made
+     * together are rendered together.
+     */
+    private void scheduleBatch() {
+        if (!batchPosted && !batchRunning && !dirty.isEmpty()) {
+            batchPosted = true;
+            handler.post(startBatchRunnable);
+        }
+    }
+
+    /**
+     * Hands the changed cells to the render thread, together with their image and progress
+     * at this time. New rows are taken if the grid has changed its size.
+     */
+    private void startBatch() {
+        if (!attached || renderPriority < RenderCoordinator.PRIORITY_VISIBLE || cellSize <= 0
+                || cells.isEmpty() || dirty.isEmpty()) {
+            return;
+        }
+        final int rowCount = (cells.size() + columns - 1) / columns;
+        if (rows == null || rows.length != rowCount || rows[0].getWidth() != columns * cellSize
+                || rows[0].getHeight() != cellSize) {
+            releaseRows();
+            rows = new Bitmap[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                rows[i] = BitmapPool.getInstance().obtain(columns * cellSize, cellSize);
+                rows[i].eraseColor(0);
+            }
+            dirty.set(0, cells.size());
+        }
+        final List<CellRender> renders = new ArrayList<>(dirty.cardinality());
+        for (int i = dirty.nextSetBit(0); i >= 0 && i < cells.size(); i = dirty.nextSetBit(i + 1)) {
+            final Cell cell = cells.get(i);
+            final float fraction = cell.progress <= 0 ? 0 : Math.min((float) cell.progress / maximum, 1);
+            renders.add(new CellRender(cell, cell.image, cell.imageVersion, rendererFactory, fraction,
+                    i % columns, i / columns, cellSize));
+        }
+        dirty.clear();
+        batchRunning = true;
+        renderExecutor.execute(new RenderBatch(renders, rowsGeneration));
+    }
+
+    /**
+     * Copies the rendered cells into their rows. The next batch only starts afterwards, so
+     * the frames of the cells do not change while they are copied.
+     */
+    private void onBatchDone(final List<CellRender> renders, final int generation) {
+        batchRunning = false;
+        if (generation == rowsGeneration && rows != null) {
+            for (final CellRender render : renders) {
+                int[] pixels = render.pixels;
+                if (pixels == null) {
+                    if (emptyCell == null || emptyCell.length != render.size * render.size) {
+                        emptyCell = new int[render.size * render.size];
+                    }
+                    pixels = emptyCell;
+                }
+                final int left = render.column * render.size;
+                rows[render.row].setPixels(pixels, 0, render.size, left, 0, render.size, render.size);
+                final int x = getPaddingLeft() + left;
+                final int y = getPaddingTop() + render.row * render.size;
+                invalidRect.union(x, y, x + render.size, y + render.size);
+            }
+        }
+        if (attached) {
+            RenderCoordinator.getInstance().requestFrame(renderClient);
+            RenderCoordinator.getInstance().onMemoryChanged();
+        }
+        scheduleBatch();
+    }
+
+    /**
+     * Releases the renderers of the cells on the render thread, after the batches before.
+     */
+    private void releaseCells(final List<Cell> released) {
+        final List<Cell> copy = new ArrayList<>(released);
+        renderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (final Cell cell : copy) {
+                    renderByteCount -= cell.release();
+                }
+            }
+        });
+    }
+
+    private void releaseRows() {
+        if (rows != null) {
+            for (final Bitmap row : rows) {
+                BitmapPool.getInstance().release(row);
+            }
+            rows = null;
+        }
+        // a running batch does not copy its cells into the rows that replace these
+        rowsGeneration++;
+    }
+
+    /**
+     * Renders a batch of cells into their frames on the render thread.
+     */
+    private class RenderBatch implements Runnable {
+
+        private final List<CellRender> renders;
+
+        private final int generation;
+
+        RenderBatch(final List<CellRender> renders, final int generation) {
+            this.renders = renders;
+            this.generation = generation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (final CellRender render : renders) {
+                    final long before = render.cell.byteCount;
+                    render.pixels = render.cell.render(render);
+                    renderByteCount += render.cell.byteCount - before;
+                }
+            } finally {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onBatchDone(renders, generation);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * The state of a cell when its render was started.
+     */
+    private static final class CellRender {
+
+        final Cell cell;
+
+        final Bitmap image;
+
+        final int imageVersion;
+
+        final RendererFactory factory;
+
+        final float fraction;
+
+        final int column;
+
+        final int row;
+
+        final int size;
+
+        /**
+         * The frame of the cell once it has been rendered, {@code null} if the cell is empty.
+         */
+        int[] pixels;
+
+        CellRender(final Cell cell, final Bitmap image, final int imageVersion, final RendererFactory factory,
+                   final float fraction, final int column, final int row, final int size) {
+            this.cell = cell;
+            this.image = image;
+            this.imageVersion = imageVersion;
+            this.factory = factory;
+            this.fraction = fraction;
+            this.column = column;
+            this.row = row;
+            this.size = size;
+        }
+    }
+
+    private static class Cell {
+
+        /**
+         * Set on the main thread.
+         */
+        Bitmap image;
+
+        int imageVersion;
+
+        int progress;
+
+        /**
+         * Works on the image scaled to the cell size, {@code null} until the cell is
+         * rendered. This and the fields below are only used on the render thread.
+         */
+        FrameRenderer renderer;
+
+        /**
+         * The frame of the cell, its own so that the renderer can keep what it rendered before.
+         */
+        IntRaster frame;
+
+        int preparedVersion;
+
+        RendererFactory preparedFactory;
+
+        long byteCount;
+
+        /**
+         * Renders the progress into the frame, the renderer is prepared first if the image,
+         * the size or the factory have changed.
+         *
+         * @return the pixels of the cell, {@code null} if it is empty.
+         */
+        @Nullable
+        int[] render(final CellRender render) {
+            if (render.image == null || render.factory == null) {
+                release();
+                return null;
+            }
+            if (renderer == null || preparedVersion != render.imageVersion || preparedFactory != render.factory
+                    || frame.getWidth() != render.size) {
+                prepare(render);
+                if (renderer == null) {
+                    // the indicator does not render with a frame renderer
+                    return null;
+                }
+            }
+            // like the indicators, e.g. the first block is already revealed at 0%
+            renderer.renderFraction(render.fraction, frame);
+            return frame.getData();
+        }
+
+        private void prepare(final CellRender render) {
+            release();
+            final FrameRenderer created = render.factory.create();
+            if (created == null) {
+                return;
+            }
+            final Bitmap image = render.image;
+            final int size = render.size;
+            final float scale = Math.max((float) size / image.getWidth(), (float) size / image.getHeight());
+            final int width = Math.max(size, Math.round(image.getWidth() * scale));
+            final int height = Math.max(size, Math.round(image.getHeight() * scale));
+            final Bitmap scaled = Bitmap.createScaledBitmap(image, width, height, true);
+            // the center of the image, like a center cropped ImageView. The renderer keeps
+            // its own copy, the scaled bitmap is not needed afterwards
+            final IntRaster source = new IntRaster(size, size);
+            IndicatorUtils.asRaster(scaled).getPixels(source.getData(), 0, size,
+                    (width - size) / 2, (height - size) / 2, size, size);
+            if (scaled != image) {
+                scaled.recycle();
+            }
+            renderer = created;
+            renderer.prepare(source);
+            frame = new IntRaster(size, size);
+            renderer.renderBase(frame);
+            preparedVersion = render.imageVersion;
+            preparedFactory = render.factory;
+            // the source copy of the renderer and the frame
+            byteCount = 2L * size * size * 4;
+        }
+
+        /**
+         * @return the bytes that have been released.
+         */
+        long release() {
+            final long released = byteCount;
+            if (renderer != null) {
+                renderer.release();
+                renderer = null;
+            }
+            frame = null;
+            byteCount = 0;
+            return released;
+        }
+    }
+}
@@ -18,41 +18,224 @@ package eu.bakici.imageprogressbar;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
+import android.view.View;
 import android.widget.ImageView;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.InputStream;
 
-import eu.bakici.imageprogressbar.indicator.HybridIndicator;
+import eu.bakici.imageprogressbar.indicator.IndicatorPrefetcher;
 import eu.bakici.imageprogressbar.indicator.ProgressIndicator;
+import eu.bakici.imageprogressbar.utils.BitmapPool;
+import eu.bakici.imageprogressbar.utils.DrawableBitmaps;
+import eu.bakici.imageprogressbar.utils.FrameBitmap;
+import eu.bakici.imageprogressbar.utils.FrameHandoff;
+import eu.bakici.imageprogressbar.utils.MemoryTrimmer;
+import eu.bakici.imageprogressbar.utils.RenderPolicy;
 
-public class ProgressImageView extends ImageView implements OnPostExecuteListener<Bitmap> {
+public class ProgressImageView extends ImageView {
 
-    private static final int MAX_PERCENT = 100;
 
     private final static String TAG = ProgressImageView.class.getSimpleName();
 
+    /**
+     * Views that show at least this many pixels get the full bonus for their size when
+     * renders are prioritized.
+     */
+    private static final float LARGE_AREA = 512f * 512f;
+
+    /**
+     * Frames that changed in more than this share of their area are shown as a whole.
+     */
+    private static final float MAX_DIRTY_SHARE = 0.5f;
+
     private final static String BUNDLE_CURRENT_PROGRESS = TAG + ".bundle.progress";
 
-    private final static String BUNDLE_CURRENT_BITMAP = TAG + ".bundle.bitmap";
+    private final static String BUNDLE_MAXIMUM = TAG + ".bundle.maximum";
 
+    private final static String BUNDLE_INDICATOR_CLASS = TAG + ".bundle.indicator.class";
+
+    private final static String BUNDLE_INDICATOR_STATE = TAG + ".bundle.indicator.state";
 
-    private Bitmap originalBitmap;
 
     private int maximum = 100;
 
     private int progress;
-    private ProgressIndicator indicator;
     private boolean fromSuper = false;
 
+    /**
+     * Renders the frames instead of the own indicator, see {@link #setProgressSource(ProgressSource)}.
+     */
+    private ProgressSource source;
+
+    /**
+     * Reads the image set with {@link #setImageStream(InputStream, long)}.
+     */
+    private StreamDecodeTask streamTask;
+
+    /**
+     * Decodes the image set with {@link #setImageResource(int)} or {@link #setImageURI(Uri)}.
+     */
+    private ImageDecodeTask decodeTask;
+
+    /**
+     * Set while a background decode shows its image.
+     */
+    private boolean decodeUpdate;
+
+    /**
+     * Set while the view is not visible, e.g. off-screen, in a hidden tab or in a hidden window.
+     * Progress is only recorded then and a single frame catches up once the view shows again.
+     */
+    private boolean suspended;
+
+    private boolean attached;
+
+    /**
+     * Read by the render threads of the {@link RenderCoordinator}, updated on the main thread.
+     */
+    private volatile float renderPriority;
+
+    private final Rect visibleRect = new Rect();
+
+    /**
+     * Prepares the indicator and hands it the progress, the view shows the frames.
+     */
+    private final RenderPipeline pipeline = new RenderPipeline(new RenderPipeline.Host() {
+        @Override
+        public float getProgressFraction() {
+            return ProgressImageView.this.getProgressFraction();
+        }
+
+        @Override
+        public float getRenderPriority() {
+            return renderPriority;
+        }
+
+        @Override
+        public void updateRenderPriority() {
+            ProgressImageView.this.updateRenderPriority();
+        }
+
+        @Override
+        public boolean isRenderSuspended() {
+            return suspended;
+        }
+
+        @Override
+        public void requestFrame() {
+            ProgressImageView.this.requestFrame();
+        }
+
+        @Override
+        public void onFrame() {
+            showCurrentFrame();
+        }
+
+        @Override
+        public void onPrepared() {
+            // the tasks started before the update are done, the later ones read the new part
+            releaseReplacedOriginal(replacedStreamImage, decodedOriginal, true);
+            replacedStreamImage = null;
+        }
+    });
+
+    /**
+     * Prepares the indicator on a smaller bitmap once memory becomes critical and on the
+     * full-size original again once it has recovered. Held by the view, the
+     * {@link MemoryTrimmer} only references it weakly.
+     */
+    private final MemoryTrimmer.Restorable trimmable = new MemoryTrimmer.Restorable() {
+        @Override
+        public void onTrimMemory(final int level) {
+            if (MemoryTrimmer.isLowMemory()) {
+                updateWorkingBitmap();
+            }
+        }
+
+        @Override
+        public void onMemoryRecovered() {
+            updateWorkingBitmap();
+        }
+    };
+
+    /**
+     * The frame on screen. The view holds a reference on it until another bitmap is shown.
+     */
+    private FrameBitmap shownFrame;
+
+    /**
+     * The version of the frame on screen, 0 if it is not known, see
+     * {@link FrameHandoff.Frame#getVersion()}.
+     */
+    private long shownVersion;
+
+    /**
+     * A copy of the frames that is patched with the regions that changed, so that only
+     * those are drawn again. Only used by views drawn in software, owned by the view and
+     * not {@code null} while the ImageView draws it.
+     */
+    private FrameBitmap displayFrame;
+
+    private Canvas displayCanvas;
+
+    private final Paint copyPaint = new Paint();
+
+    private final Rect dirtyRect = new Rect();
+
+    private final RectF dirtyRectF = new RectF();
+
+    /**
+     * The original bitmap if it has been drawn from a drawable without a bitmap.
+     */
+    private FrameBitmap rasterizedOriginal;
+
+    private Drawable rasterizedDrawable;
+
+    /**
+     * The original bitmap if it has been decoded in the background, it goes back to the pool
+     * once another image is set.
+     */
+    private FrameBitmap decodedOriginal;
+
+    /**
+     * The original bitmap at full size. The indicator works on it, or on
+     * {@link #workingOriginal} while memory is critical.
+     */
+    private Bitmap fullOriginal;
+
+    /**
+     * The original bitmap scaled down to the view size in a pooled bitmap, {@code null}
+     * while the indicator works on the full-size original.
+     */
+    private FrameBitmap workingOriginal;
+
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * The previous part of a streamed image, it goes back to the pool once the indicator has
+     * taken the new one.
+     */
+    private FrameBitmap replacedStreamImage;
+
+    /**
+     * A drawable that waits for the view to be laid out before it can be drawn.
+     */
+    private Drawable pendingDrawable;
+
     public ProgressImageView(final Context context) {
         this(context, null);
     }
@@ -63,6 +246,9 @@ public class ProgressImageView extends ImageView implements OnPostExecuteListene
 
     public ProgressImageView(final Context context, final AttributeSet attrs, final int defStyle) {
         super(context, attrs, defStyle);
+        MemoryTrimmer.register(context);
+        RenderPolicy.register(context);
+        copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
     }
 
     /**
@@ -83,62 +269,321 @@ public class ProgressImageView extends ImageView implements OnPostExecuteListene
     @Override
     public void setImageDrawable(final Drawable drawable) {
         super.setImageDrawable(drawable);
-        if (drawable == null || fromSuper) {
+        if (fromSuper) {
             fromSuper = false;
             return;
         }
-        Bitmap bitmap = extractBitmap(drawable);
-        if (bitmap != null) {
-            // it is important to store the bitmap that should be displayed to enable the
-            // proper image manipulation
-            originalBitmap = bitmap;
-            fireOnPreProgress();
-        } else {
-            throw new IllegalArgumentException("Drawable does not contain bitmap");
+        releaseShownFrame();
+        releaseDisplayFrame();
+        shownVersion = 0;
+        if (!decodeUpdate) {
+            cancelStream();
+            cancelDecode();
+        }
+        if (drawable == null) {
+            pendingDrawable = null;
+            return;
         }
+        setOriginalDrawable(drawable);
     }
 
+    /**
+     * Loads the resource on the main thread like the ImageView, see
+     * {@link #setImageResourceAsync(int)} to decode it in the background.
+     */
     @Override
-    public void setImageResource(int resId) {
+    public void setImageResource(final int resId) {
+        cancelStream();
+        cancelDecode();
         super.setImageResource(resId);
-        originalBitmap = ((BitmapDrawable) getDrawable()).getBitmap();
-        fireOnPreProgress();
+        onSuperImageLoaded();
     }
 
-    @Nullable
-    private Bitmap extractBitmap(@NonNull Drawable drawable) {
-        if (drawable instanceof BitmapDrawable) {
-            return ((BitmapDrawable) drawable).getBitmap();
+    /**
+     * Loads the uri on the main thread like the ImageView, see
+     * {@link #setImageURIAsync(Uri)} to decode it in the background.
+     */
+    @Override
+    public void setImageURI(@Nullable final Uri uri) {
+        cancelStream();
+        cancelDecode();
+        super.setImageURI(uri);
+        onSuperImageLoaded();
+    }
+
+    /**
+     * Decodes the resource on a background thread, subsampled to the size of the view.
+     * Unlike {@link #setImageResource(int)} the view is empty and {@link #getDrawable()}
+     * returns {@code null} until it has been decoded. Resources that are no bitmaps, e.g.
+     * vectors, are loaded the way the ImageView does afterwards.
+     */
+    public void setImageResourceAsync(final int resId) {
+        setImageDrawable(null);
+        if (resId != 0) {
+            startDecode(ImageDecodeTask.forResource(this, getResources(), resId,
+                    getDecodeWidth(), getDecodeHeight()));
+        }
+    }
+
+    /**
+     * Decodes the image behind a {@code content}, {@code file} or {@code android.resource}
+     * uri like {@link #setImageResourceAsync(int)}.
+     */
+    public void setImageURIAsync(@Nullable final Uri uri) {
+        setImageDrawable(null);
+        if (uri != null) {
+            startDecode(ImageDecodeTask.forUri(this, getContext().getContentResolver(), uri,
+                    getDecodeWidth(), getDecodeHeight()));
+        }
+    }
+
+    private void startDecode(final ImageDecodeTask task) {
+        decodeTask = task;
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * @return the width images are decoded for, the screen width before the view is laid out.
+     */
+    private int getDecodeWidth() {
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width > 0 && getHeight() - getPaddingTop() - getPaddingBottom() > 0) {
+            return width;
+        }
+        return getResources().getDisplayMetrics().widthPixels;
+    }
+
+    private int getDecodeHeight() {
+        final int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (height > 0 && getWidth() - getPaddingLeft() - getPaddingRight() > 0) {
+            return height;
+        }
+        return getResources().getDisplayMetrics().heightPixels;
+    }
+
+    /**
+     * Hands the decoded image to the indicator, or loads it the way the ImageView does if it
+     * could not be decoded in the background.
+     */
+    void onImageDecoded(final ImageDecodeTask task, @Nullable final Bitmap bitmap) {
+        if (task != decodeTask) {
+            if (bitmap != null) {
+                BitmapPool.getInstance().release(bitmap);
+            }
+            return;
+        }
+        decodeTask = null;
+        if (bitmap == null) {
+            if (task.getUri() != null) {
+                super.setImageURI(task.getUri());
+            } else {
+                super.setImageResource(task.getResId());
+            }
+            onSuperImageLoaded();
+            return;
+        }
+        decodeUpdate = true;
+        try {
+            setImageBitmap(bitmap);
+        } finally {
+            decodeUpdate = false;
+        }
+        decodedOriginal = FrameBitmap.adopt(BitmapPool.getInstance(), bitmap);
+    }
+
+    /**
+     * Takes the drawable the ImageView has loaded from a resource or an uri, it does not go
+     * through {@link #setImageDrawable(Drawable)}.
+     */
+    private void onSuperImageLoaded() {
+        releaseShownFrame();
+        releaseDisplayFrame();
+        shownVersion = 0;
+        final Drawable drawable = getDrawable();
+        if (drawable != null) {
+            setOriginalDrawable(drawable);
         } else {
-            Class<? extends Drawable> drawableClass = drawable.getClass();
-            try {
-                // this is hacky and ugly. There is a possibility to get a custom drawable
-                // that is not part of the framework but stores a bitmap.
-                // Therefore we check if a method named 'getBitmap' exists.
-                // and we return the value of it to initialize the original bitmap for
-                // proper image manipulation.
-                Method getBitmapMethod = drawableClass.getMethod("getBitmap");
-                return (Bitmap) getBitmapMethod.invoke(drawable);
-            } catch (NoSuchMethodException e) {
-                return null;
-            } catch (InvocationTargetException e) {
-                return null;
-            } catch (IllegalAccessException e) {
-                return null;
+            pendingDrawable = null;
+        }
+    }
+
+    private void cancelDecode() {
+        if (decodeTask != null) {
+            decodeTask.cancel(false);
+            decodeTask = null;
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (pendingDrawable != null && pendingDrawable == getDrawable()) {
+            setOriginalDrawable(pendingDrawable);
+        }
+    }
+
+    /**
+     * Takes the bitmap behind the drawable as the original bitmap. A drawable without one,
+     * e.g. a vector or a layer drawable, is drawn into a pooled bitmap. If neither the drawable
+     * nor the view have a size yet, this is repeated once the view has been laid out.
+     */
+    private void setOriginalDrawable(@NonNull final Drawable drawable) {
+        // the in-flight tasks may still read the previous original
+        final boolean idle = pipeline.isIdle();
+        final FrameBitmap previousRasterized = rasterizedOriginal;
+        final FrameBitmap previousDecoded = decodedOriginal;
+        Bitmap bitmap = DrawableBitmaps.getBitmap(drawable);
+        if (decodedOriginal != null && decodedOriginal.getBitmap() != bitmap) {
+            decodedOriginal = null;
+        }
+        if (bitmap == null) {
+            bitmap = rasterize(drawable);
+        } else {
+            rasterizedOriginal = null;
+            rasterizedDrawable = null;
+        }
+        if (bitmap == null) {
+            pendingDrawable = drawable;
+            return;
+        }
+        pendingDrawable = null;
+        // it is important to store the bitmap that should be displayed to enable the
+        // proper image manipulation
+        pipeline.setOriginalBitmap(toWorkingBitmap(bitmap));
+        fireOnPreProgress();
+        releaseReplacedOriginal(previousRasterized, rasterizedOriginal, idle);
+        releaseReplacedOriginal(previousDecoded, decodedOriginal, idle);
+    }
+
+    /**
+     * Puts an original bitmap that has been replaced back into the pool, unless a task may
+     * still read it or it is on screen.
+     *
+     * @param idle true if no task was running when it was replaced.
+     */
+    private void releaseReplacedOriginal(@Nullable final FrameBitmap previous, @Nullable final FrameBitmap current,
+                                         final boolean idle) {
+        if (previous != null && previous != current) {
+            if (idle && (shownFrame == null || shownFrame.getBitmap() != previous.getBitmap())
+                    && !isDrawn(previous.getBitmap())) {
+                previous.release();
             }
+            // otherwise it is left to the garbage collector
+        }
+    }
+
+    /**
+     * @return true if the ImageView draws the bitmap, e.g. an image before its first frame.
+     */
+    private boolean isDrawn(final Bitmap bitmap) {
+        final Drawable drawable = getDrawable();
+        return drawable != null && DrawableBitmaps.getBitmap(drawable) == bitmap;
+    }
+
+    /**
+     * Prepares the indicator again if memory has become critical or has recovered since
+     * the original was set, and renders the current progress on the new working bitmap.
+     */
+    private void updateWorkingBitmap() {
+        final Bitmap original = pipeline.getOriginalBitmap();
+        if (pipeline.getIndicator() == null || fullOriginal == null || original == null) {
+            return;
+        }
+        final Bitmap working = toWorkingBitmap(fullOriginal);
+        if (working != original) {
+            pipeline.setOriginalBitmap(working);
+            fireOnPreProgress();
+            pipeline.renderWhenReady();
+        }
+    }
+
+    /**
+     * While memory is critical, the indicator works on the bitmap scaled down to the view
+     * size into a pooled bitmap instead of the full-size original. Otherwise a previous
+     * working bitmap goes back to the pool and the indicator works on the original again.
+     *
+     * @return the bitmap the indicator should work on.
+     */
+    private Bitmap toWorkingBitmap(final Bitmap bitmap) {
+        final Bitmap previousFull = fullOriginal;
+        fullOriginal = bitmap;
+        final boolean idle = pipeline.isIdle();
+        final FrameBitmap previous = workingOriginal;
+        final int viewWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int viewHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+        final float scale = viewWidth <= 0 || viewHeight <= 0 ? 1
+                : Math.min((float) viewWidth / bitmap.getWidth(), (float) viewHeight / bitmap.getHeight());
+        if (!MemoryTrimmer.isLowMemory() || scale >= 1) {
+            workingOriginal = null;
+            releaseReplacedOriginal(previous, null, idle);
+            return bitmap;
+        }
+        final int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        final int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        if (previous != null && previousFull == bitmap
+                && previous.getBitmap().getWidth() == width && previous.getBitmap().getHeight() == height) {
+            return previous.getBitmap();
+        }
+        workingOriginal = FrameBitmap.obtain(BitmapPool.getInstance(), width, height);
+        new Canvas(workingOriginal.getBitmap()).drawBitmap(bitmap, null, new Rect(0, 0, width, height), scalePaint);
+        releaseReplacedOriginal(previous, workingOriginal, idle);
+        return workingOriginal.getBitmap();
+    }
+
+    /**
+     * Draws the drawable into a pooled bitmap of the view size, keeping the aspect ratio of
+     * the drawable. Setting the same drawable again reuses the bitmap.
+     *
+     * @return the bitmap, {@code null} if neither the drawable nor the view have a size yet.
+     */
+    @Nullable
+    private Bitmap rasterize(@NonNull final Drawable drawable) {
+        final int viewWidth = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int viewHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+        int width = drawable.getIntrinsicWidth();
+        int height = drawable.getIntrinsicHeight();
+        if (width <= 0 || height <= 0) {
+            width = viewWidth;
+            height = viewHeight;
+        } else if (viewWidth > 0 && viewHeight > 0) {
+            final float scale = Math.min((float) viewWidth / width, (float) viewHeight / height);
+            width = Math.max(1, Math.round(width * scale));
+            height = Math.max(1, Math.round(height * scale));
+        }
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (rasterizedOriginal != null && rasterizedDrawable == drawable
+                && rasterizedOriginal.getBitmap().getWidth() == width
+                && rasterizedOriginal.getBitmap().getHeight() == height) {
+            return rasterizedOriginal.getBitmap();
         }
+        rasterizedOriginal = FrameBitmap.obtain(BitmapPool.getInstance(), width, height);
+        rasterizedDrawable = drawable;
+        DrawableBitmaps.rasterize(drawable, rasterizedOriginal.getBitmap());
+        return rasterizedOriginal.getBitmap();
     }
 
+    /**
+     * Restores the progress and the state of the indicator. The frame is not parcelled, it is
+     * rebuilt from the original image once the indicator is prepared. The indicator state is
+     * only restored if the indicator that has been set again is of the same class.
+     */
     @Override
     protected void onRestoreInstanceState(final Parcelable state) {
         if (state instanceof Bundle) {
             Bundle bundle = (Bundle) state;
-            final int progressPercent = bundle.getInt(BUNDLE_CURRENT_PROGRESS, 0);
-            setProgress(progressPercent, false);
-            final Bitmap bitmap = bundle.getParcelable(BUNDLE_CURRENT_BITMAP);
-            if (bitmap != null) {
-                superSetImageBitmap(bitmap);
+            maximum = bundle.getInt(BUNDLE_MAXIMUM, maximum);
+            progress = bundle.getInt(BUNDLE_CURRENT_PROGRESS, 0);
+            final Bundle indicatorState = bundle.getBundle(BUNDLE_INDICATOR_STATE);
+            final ProgressIndicator indicator = pipeline.getIndicator();
+            if (indicator != null && indicatorState != null
+                    && indicator.getClass().getName().equals(bundle.getString(BUNDLE_INDICATOR_CLASS))) {
+                indicator.onRestoreState(indicatorState);
+                fireOnPreProgress();
             }
+            // shown as soon as the indicator is ready
+            pipeline.renderWhenReady();
             super.onRestoreInstanceState(bundle.getParcelable("super_state"));
             return;
         }
@@ -150,32 +595,99 @@ public class ProgressImageView extends ImageView implements OnPostExecuteListene
         final Bundle bundle = new Bundle();
         bundle.putParcelable("super_state", super.onSaveInstanceState());
         bundle.putInt(BUNDLE_CURRENT_PROGRESS, progress);
+        bundle.putInt(BUNDLE_MAXIMUM, maximum);
+        final ProgressIndicator indicator = pipeline.getIndicator();
         if (indicator != null) {
-            bundle.putParcelable(BUNDLE_CURRENT_BITMAP, indicator.getCurrentBitmap());
+            final Bundle indicatorState = new Bundle();
+            indicator.onSaveState(indicatorState);
+            bundle.putString(BUNDLE_INDICATOR_CLASS, indicator.getClass().getName());
+            bundle.putBundle(BUNDLE_INDICATOR_STATE, indicatorState);
         }
         return bundle;
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        attached = true;
+        MemoryTrimmer.add(trimmable);
+        pipeline.register();
+        updateSuspended();
+        if (source != null) {
+            source.subscribe(this);
+            requestFrame();
+        }
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        attached = false;
+        MemoryTrimmer.remove(trimmable);
+        pipeline.unregister();
+        updateSuspended();
+        if (source != null) {
+            // the source does not hold on to detached views, they subscribe again when attached
+            source.unsubscribe(this);
+        }
         destroy();
     }
 
+    @Override
+    protected void onVisibilityChanged(@NonNull final View changedView, final int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateSuspended();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(final int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateSuspended();
+    }
+
+    /**
+     * Suspends the rendering while the view or its window is hidden and renders the latest
+     * progress once it shows again.
+     */
+    private void updateSuspended() {
+        final boolean hidden = !attached || getWindowVisibility() != VISIBLE || !isShown();
+        if (hidden == suspended) {
+            return;
+        }
+        suspended = hidden;
+        updateRenderPriority();
+        if (source != null) {
+            source.onSubscriberVisibilityChanged();
+            return;
+        }
+        pipeline.onVisibilityChanged();
+    }
+
+    /**
+     * Visible views render first, then larger ones, then the ones nearer to completion.
+     */
+    private void updateRenderPriority() {
+        float priority = getProgressFraction();
+        if (!suspended && getGlobalVisibleRect(visibleRect)) {
+            final float area = (float) getWidth() * getHeight();
+            final float visibleArea = (float) visibleRect.width() * visibleRect.height();
+            priority += RenderCoordinator.PRIORITY_VISIBLE + (area > 0 ? visibleArea / area : 0)
+                    + Math.min(1, visibleArea / LARGE_AREA);
+        }
+        renderPriority = priority;
+    }
+
     public void setProgress(final int progress) {
         setProgress(progress, true);
     }
 
     private void setProgress(final int progress, final boolean silent) {
-        if (indicator == null) {
+        if (pipeline.getIndicator() == null) {
             return;
         }
         this.progress = progress;
-        if (originalBitmap == null) {
-            return;
-        }
         if (silent) {
-            fireOnProgress();
+            pipeline.render();
         }
     }
 
@@ -194,114 +706,345 @@ public class ProgressImageView extends ImageView implements OnPostExecuteListene
     }
 
 
-    private int getProgressPercent() {
-        final float progressFloat = (float) progress;
-        final float maxFloat = (float) maximum;
-        return (int) Math.ceil((progressFloat / maxFloat) * MAX_PERCENT);
+    /**
+     * @return the progress relative to the maximum, from 0 to 1. Indicators get it at this
+     * resolution, so that a large maximum moves them in steps finer than one percent.
+     */
+    public float getProgressFraction() {
+        if (maximum <= 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min((float) progress / maximum, 1));
     }
 
     public void setProgressIndicator(final ProgressIndicator progressIndicator) {
-        indicator = progressIndicator;
+        leaveSource();
+        pipeline.setIndicator(progressIndicator);
         fireOnPreProgress();
     }
 
 
-    private void fireOnPreProgress() {
-        if (indicator != null) {
-            final int process = indicator.getIndicationProcessingType();
-            switch (process) {
-                case ProgressIndicator.HYBRID:
-                case ProgressIndicator.SYNC:
-                    indicator.onPreProgress(originalBitmap);
-                    superSetImageBitmap(indicator.getCurrentBitmap());
-                    break;
-                case ProgressIndicator.ASYNC:
-                    new ProgressImageAsyncTask(indicator, getProgressPercent(), true, this).execute(originalBitmap);
-                    break;
+    /**
+     * Shows an image while it is downloaded. The stream is read on a background thread, the
+     * received bytes are the progress and the received part of the image is shown as it
+     * arrives, so the indicator reveals real pixels. The image is decoded at the size of the
+     * view if the view has been laid out. Set the indicator first.
+     *
+     * @param stream the encoded image, it is closed once it has been read.
+     * @param length the number of bytes of the image.
+     */
+    public void setImageStream(final InputStream stream, final long length) {
+        if (length <= 0 || length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("the length must be between 1 and " + Integer.MAX_VALUE);
+        }
+        cancelStream();
+        cancelDecode();
+        maximum = (int) length;
+        progress = 0;
+        streamTask = new StreamDecodeTask(this, stream, (int) length,
+                getWidth() - getPaddingLeft() - getPaddingRight(),
+                getHeight() - getPaddingTop() - getPaddingBottom());
+        streamTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    void onStreamProgress(final int received) {
+        setProgress(received);
+    }
+
+    /**
+     * Shows the received part of the image and renders the current progress afterwards. If
+     * the indicator is prepared for the previous part, it only takes the new pixels, see
+     * {@link ProgressIndicator#onSourceUpdated(Bitmap)}. A part that arrives while the
+     * indicator is still being prepared is skipped, the complete image never is.
+     *
+     * @param complete true for the complete image.
+     */
+    void onStreamImage(final Bitmap bitmap, final boolean complete) {
+        if (!complete && pipeline.isPreparing()) {
+            BitmapPool.getInstance().release(bitmap);
+            return;
+        }
+        if (!updateStreamImage(bitmap)) {
+            decodeUpdate = true;
+            try {
+                setImageBitmap(bitmap);
+            } finally {
+                decodeUpdate = false;
             }
+            decodedOriginal = FrameBitmap.adopt(BitmapPool.getInstance(), bitmap);
         }
+        pipeline.renderWhenReady();
     }
 
+    /**
+     * Replaces the original bitmap by the next part of a streamed image of the same size,
+     * without preparing the indicator again.
+     *
+     * @return false if the indicator has to be prepared for the bitmap.
+     */
+    private boolean updateStreamImage(final Bitmap bitmap) {
+        if (source != null || decodedOriginal == null || decodedOriginal.getBitmap() != pipeline.getOriginalBitmap()
+                || !pipeline.updateOriginalBitmap(bitmap)) {
+            return false;
+        }
+        // released once the tasks before the update, which may read it, are done
+        replacedStreamImage = decodedOriginal;
+        decodedOriginal = FrameBitmap.adopt(BitmapPool.getInstance(), bitmap);
+        return true;
+    }
 
-    private void fireOnProgress() {
-        if (indicator != null) {
-            final int process = indicator.getIndicationProcessingType();
-            switch (process) {
-                case ProgressIndicator.SYNC:
-                    indicator.onProgress(originalBitmap, getProgressPercent());
-                    superSetImageBitmap(indicator.getCurrentBitmap());
-                    break;
-                case ProgressIndicator.ASYNC:
-                    new ProgressImageAsyncTask(indicator, getProgressPercent(), false, this).execute(originalBitmap);
-                    break;
-                case ProgressIndicator.HYBRID:
-                    ((HybridIndicator) indicator).onProgress(originalBitmap, getProgressPercent(),
-                            new HybridIndicator.OnProgressIndicationUpdatedListener() {
-                                @Override
-                                public void onProgressIndicationUpdated(final Bitmap bitmap) {
-                                    superSetImageBitmap(bitmap);
-                                }
-                            }
-                    );
-                    break;
+    void onStreamFinished(final StreamDecodeTask task, @Nullable final Bitmap bitmap) {
+        if (task != streamTask) {
+            if (bitmap != null) {
+                BitmapPool.getInstance().release(bitmap);
             }
+            return;
+        }
+        streamTask = null;
+        if (bitmap != null) {
+            onStreamImage(bitmap, true);
         }
     }
 
+    private void cancelStream() {
+        if (streamTask != null) {
+            streamTask.cancel(true);
+            streamTask = null;
+        }
+    }
 
-    public void destroy() {
-        if (indicator != null) {
-            indicator.cleanUp();
+    /**
+     * Shows the frames of a source that is shared with other views instead of running an own
+     * indicator. Each frame is rendered once, no matter how many views show it. The progress
+     * and the image are set on the source then, the own indicator is cleaned up.
+     *
+     * @param progressSource the source, {@code null} to stop showing its frames.
+     */
+    public void setProgressSource(@Nullable final ProgressSource progressSource) {
+        if (source == progressSource) {
+            return;
+        }
+        leaveSource();
+        pipeline.setIndicator(null);
+        source = progressSource;
+        if (source != null) {
+            showSourceImage();
+            if (attached) {
+                source.subscribe(this);
+            }
         }
     }
 
-    @Override
-    public void onPostExecute(Bitmap param) {
-        setImageBitmap(param);
+    @Nullable
+    public ProgressSource getProgressSource() {
+        return source;
     }
 
-    static class ProgressImageAsyncTask extends AsyncTask<Bitmap, Void, Bitmap> {
+    /**
+     * Shows the latest frame of the source, or its image while there is none.
+     */
+    void showSourceImage() {
+        final ProgressIndicator sourceIndicator = source.getProgressIndicator();
+        if (sourceIndicator != null && sourceIndicator.getFrameVersion() > 0) {
+            shownVersion = 0;
+            requestFrame();
+            return;
+        }
+        superSetImageBitmap(source.getOriginalBitmap());
+        releaseShownFrame();
+        releaseDisplayFrame();
+        shownVersion = 0;
+    }
 
+    /**
+     * Stops showing the frames of the source, the view runs its own indicator again.
+     */
+    private void leaveSource() {
+        if (source != null) {
+            source.unsubscribe(this);
+            source = null;
+            shownVersion = 0;
+        }
+    }
 
-        private final ProgressIndicator mIndicator;
-        private final int mProgressPercent;
-        private final boolean mIsPreProgress;
-        private final OnPostExecuteListener<Bitmap> mListener;
+    /**
+     * Called by the source when it has completed a frame.
+     */
+    void onSourceFrame() {
+        requestFrame();
+    }
 
-        public ProgressImageAsyncTask(final ProgressIndicator indicator,
-                                      final int progressPercent,
-                                      boolean preProgress,
-                                      OnPostExecuteListener<Bitmap> listener) {
-            mIndicator = indicator;
-            mProgressPercent = progressPercent;
-            mIsPreProgress = preProgress;
-            mListener = listener;
+    /**
+     * @return the priority of the renders of the view, see {@link RenderCoordinator.Client}.
+     */
+    float getRenderPriority() {
+        return renderPriority;
+    }
 
-        }
+    /**
+     * @return true while the view is hidden and does not need new frames.
+     */
+    boolean isRenderSuspended() {
+        return suspended;
+    }
 
-        @Override
-        protected Bitmap doInBackground(final Bitmap... params) {
-            final Bitmap bitmap = params[0];
-            if (mIsPreProgress) {
-                mIndicator.onPreProgress(bitmap);
-            } else {
-                mIndicator.onProgress(bitmap, mProgressPercent);
-            }
-            return mIndicator.getCurrentBitmap();
-        }
+    /**
+     * Shows a bitmap with an indicator that has been prepared for it ahead of time, e.g. by
+     * an {@link IndicatorPrefetcher}. The pre progress is skipped, the first frame of the
+     * indicator shows up right away. An indicator that is not prepared for the bitmap is
+     * prepared as usual.
+     *
+     * @param bitmap             the bitmap to show.
+     * @param preparedIndicator  the indicator prepared for the bitmap.
+     */
+    public void setPreparedImage(final Bitmap bitmap, final ProgressIndicator preparedIndicator) {
+        leaveSource();
+        pipeline.setIndicator(preparedIndicator);
+        setImageBitmap(bitmap);
+    }
 
-        @Override
-        protected final void onPostExecute(final Bitmap bitmap) {
-            mListener.onPostExecute(bitmap);
+    /**
+     * Prepares the indicator on a worker thread for all processing types, the image that
+     * has been set stays on screen until the first frame is ready.
+     */
+    private void fireOnPreProgress() {
+        // the first frame of the new preparation is shown as a whole
+        shownVersion = 0;
+        pipeline.prepare();
+    }
+
+    /**
+     * Sets the share of a CPU the renders of this view may take. The view skips progress
+     * updates that would render more often, the final frame is always rendered.
+     *
+     * @param share greater than 0 and at most 1, by default 0.5.
+     */
+    public void setRenderCpuShare(final float share) {
+        pipeline.setCpuShare(share);
+    }
+
+    public float getRenderCpuShare() {
+        return pipeline.getCpuShare();
+    }
+
+
+    public void destroy() {
+        cancelStream();
+        cancelDecode();
+        pipeline.destroy();
+    }
+
+    /**
+     * Shows the last completed frame of the indicator with the next display frame, together
+     * with the frames of all other views.
+     */
+    private void requestFrame() {
+        pipeline.requestCoordinatedFrame();
+    }
+
+    /**
+     * Shows the last completed frame of the indicator.
+     */
+    private void showCurrentFrame() {
+        final ProgressIndicator frameIndicator = source != null ? source.getProgressIndicator() : pipeline.getIndicator();
+        if (frameIndicator == null) {
+            return;
+        }
+        final FrameHandoff.Frame published = frameIndicator.acquirePublishedFrame();
+        if (published == null) {
+            return;
         }
+        final FrameBitmap frame = published.getContent();
+        if (frame == shownFrame || (displayFrame != null && published.getVersion() == shownVersion)) {
+            frame.release();
+            return;
+        }
+        final Bitmap bitmap = frame.getBitmap();
+        if (!isHardwareAccelerated() && shownVersion > 0 && published.getDirtySince(shownVersion, dirtyRect)
+                && isSmallChange(bitmap)) {
+            showDirtyRegion(bitmap);
+            frame.release();
+        } else {
+            superSetImageBitmap(bitmap);
+            // released after the new frame is set, the ImageView no longer draws it
+            releaseShownFrame();
+            releaseDisplayFrame();
+            shownFrame = frame;
+        }
+        shownVersion = published.getVersion();
+    }
 
+    /**
+     * @return true if {@link #dirtyRect} covers at most {@link #MAX_DIRTY_SHARE} of the frame.
+     */
+    private boolean isSmallChange(final Bitmap bitmap) {
+        final float area = (float) bitmap.getWidth() * bitmap.getHeight();
+        return dirtyRect.width() * (float) dirtyRect.height() <= area * MAX_DIRTY_SHARE;
+    }
 
+    /**
+     * Copies the region of the frame that changed into the display bitmap and only
+     * invalidates that region. The first time the whole frame is copied and shown.
+     * <p>
+     * Only for views drawn in software: with hardware acceleration the dirty region is
+     * ignored and a changed bitmap is uploaded as a whole, so patching the bitmap on screen
+     * saves nothing there and the new frame is set instead.
+     */
+    private void showDirtyRegion(final Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (displayFrame == null || displayFrame.getBitmap().getWidth() != width
+                || displayFrame.getBitmap().getHeight() != height) {
+            final FrameBitmap previous = displayFrame;
+            displayFrame = FrameBitmap.obtain(BitmapPool.getInstance(), width, height);
+            displayCanvas = new Canvas(displayFrame.getBitmap());
+            displayCanvas.drawBitmap(bitmap, 0, 0, copyPaint);
+            superSetImageBitmap(displayFrame.getBitmap());
+            releaseShownFrame();
+            if (previous != null) {
+                previous.release();
+            }
+            return;
+        }
+        if (dirtyRect.isEmpty()) {
+            return;
+        }
+        displayCanvas.drawBitmap(bitmap, dirtyRect, dirtyRect, copyPaint);
+        invalidateFrameRegion(width, height);
     }
 
+    /**
+     * Invalidates the part of the view that shows {@link #dirtyRect} of a frame of the given size.
+     */
+    private void invalidateFrameRegion(final int frameWidth, final int frameHeight) {
+        final Drawable drawable = getDrawable();
+        if (drawable == null) {
+            return;
+        }
+        final Rect bounds = drawable.getBounds();
+        final float scaleX = (float) bounds.width() / frameWidth;
+        final float scaleY = (float) bounds.height() / frameHeight;
+        dirtyRectF.set(bounds.left + dirtyRect.left * scaleX, bounds.top + dirtyRect.top * scaleY,
+                bounds.left + dirtyRect.right * scaleX, bounds.top + dirtyRect.bottom * scaleY);
+        getImageMatrix().mapRect(dirtyRectF);
+        dirtyRectF.roundOut(dirtyRect);
+        // one more pixel for the filtering at the edges
+        invalidate(getPaddingLeft() + dirtyRect.left - 1, getPaddingTop() + dirtyRect.top - 1,
+                getPaddingLeft() + dirtyRect.right + 1, getPaddingTop() + dirtyRect.bottom + 1);
+    }
 
-}
+    private void releaseShownFrame() {
+        if (shownFrame != null) {
+            shownFrame.release();
+            shownFrame = null;
+        }
+    }
 
-interface OnPostExecuteListener<T> {
-    void onPostExecute(T param);
+    private void releaseDisplayFrame() {
+        if (displayFrame != null) {
+            displayFrame.release();
+            displayFrame = null;
+            displayCanvas = null;
+        }
+    }
 }
-
@@ -0,0 +1,221 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.bakici.imageprogressbar.indicator.ProgressIndicator;
+
+/**
+ * One progress of one image, shown by any number of {@link ProgressImageView}s at once,
+ * e.g. a list row and a detail header of the same download. The source owns the indicator,
+ * it cleans it up when another one is set and with {@link #destroy()}. Every frame is
+ * rendered once and shown by all views that are subscribed with
+ * {@link ProgressImageView#setProgressSource(ProgressSource)}.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class ProgressSource {
+
+    private final List<ProgressImageView> subscribers = new ArrayList<>();
+
+    private int maximum = 100;
+
+    private int progress;
+
+    /**
+     * A copy of {@link #subscribers} for the render threads.
+     */
+    private volatile Object[] subscriberArray = new Object[0];
+
+    private final RenderPipeline pipeline = new RenderPipeline(new RenderPipeline.Host() {
+        @Override
+        public float getProgressFraction() {
+            return ProgressSource.this.getProgressFraction();
+        }
+
+        @Override
+        public float getRenderPriority() {
+            // the most important subscriber counts, read without a lock on the render threads
+            float priority = 0;
+            final Object[] views = subscriberArray;
+            for (final Object view : views) {
+                priority = Math.max(priority, ((ProgressImageView) view).getRenderPriority());
+            }
+            return priority;
+        }
+
+        @Override
+        public void updateRenderPriority() {
+            // taken from the subscribers when it is read
+        }
+
+        @Override
+        public boolean isRenderSuspended() {
+            return isSuspended();
+        }
+
+        @Override
+        public void requestFrame() {
+            requestFrames();
+        }
+
+        @Override
+        public void onFrame() {
+            // the subscribers request their own frames
+        }
+
+        @Override
+        public void onPrepared() {
+            // the subscribers show the frames the indicator publishes
+        }
+    });
+
+    public ProgressSource() {
+    }
+
+    public ProgressSource(final ProgressIndicator progressIndicator) {
+        pipeline.setIndicator(progressIndicator);
+    }
+
+    /**
+     * Sets the image the indicator works on. The subscribers show it until the first frame
+     * of the indicator is ready.
+     */
+    public void setImageBitmap(@Nullable final Bitmap bitmap) {
+        pipeline.setOriginalBitmap(bitmap);
+        for (final ProgressImageView view : subscribers) {
+            view.showSourceImage();
+        }
+        pipeline.prepare();
+    }
+
+    public void setProgressIndicator(final ProgressIndicator progressIndicator) {
+        pipeline.setIndicator(progressIndicator);
+        for (final ProgressImageView view : subscribers) {
+            view.showSourceImage();
+        }
+        pipeline.prepare();
+    }
+
+    @Nullable
+    public ProgressIndicator getProgressIndicator() {
+        return pipeline.getIndicator();
+    }
+
+    @Nullable
+    Bitmap getOriginalBitmap() {
+        return pipeline.getOriginalBitmap();
+    }
+
+    public void setProgress(final int progress) {
+        this.progress = progress;
+        pipeline.render();
+    }
+
+    public int getProgress() {
+        return progress;
+    }
+
+    public void setMaximum(final int max) {
+        maximum = max;
+    }
+
+    public int getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * @return the progress relative to the maximum, from 0 to 1.
+     */
+    public float getProgressFraction() {
+        if (maximum <= 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min((float) progress / maximum, 1));
+    }
+
+    /**
+     * Sets the share of a CPU the renders of this source may take, see
+     * {@link ProgressImageView#setRenderCpuShare(float)}.
+     */
+    public void setRenderCpuShare(final float share) {
+        pipeline.setCpuShare(share);
+    }
+
+    /**
+     * Cancels the renders and cleans up the indicator, e.g. stops its threads. Call it once
+     * no view shows the source any more, neither the source nor its indicator can be used
+     * afterwards.
+     */
+    public void destroy() {
+        pipeline.destroy();
+    }
+
+    void subscribe(final ProgressImageView view) {
+        if (subscribers.contains(view)) {
+            return;
+        }
+        subscribers.add(view);
+        subscriberArray = subscribers.toArray();
+        pipeline.register();
+        onSubscriberVisibilityChanged();
+    }
+
+    void unsubscribe(final ProgressImageView view) {
+        if (!subscribers.remove(view)) {
+            return;
+        }
+        subscriberArray = subscribers.toArray();
+        if (subscribers.isEmpty()) {
+            pipeline.unregister();
+        }
+    }
+
+    /**
+     * Called by a subscriber when it has been shown or hidden. Renders the latest progress
+     * once one of them is visible again.
+     */
+    void onSubscriberVisibilityChanged() {
+        pipeline.onVisibilityChanged();
+    }
+
+    /**
+     * @return true if none of the subscribers is visible.
+     */
+    private boolean isSuspended() {
+        for (final ProgressImageView view : subscribers) {
+            if (!view.isRenderSuspended()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lets every subscriber show the latest frame with the next display frame.
+     */
+    private void requestFrames() {
+        for (final ProgressImageView view : subscribers) {
+            view.onSourceFrame();
+        }
+    }
+}
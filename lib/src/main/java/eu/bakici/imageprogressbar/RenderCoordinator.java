@@ -0,0 +1,337 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Coordinates the rendering of all progress views of the process. Renders run on a shared
+ * set of background threads, at most one per view at a time and the most important view
+ * first. The prepared indicators of hidden views are released when all of them together
+ * exceed the memory budget, and the completed frames are shown in a single pass per display
+ * frame, no matter how many views are animating.
+ * <p>
+ * Except for the executors, all methods must be called on the main thread.
+ */
+public final class RenderCoordinator {
+
+    /**
+     * Clients with a lower priority are not visible, their memory may be released.
+     */
+    public static final float PRIORITY_VISIBLE = 2;
+
+    private static final int DEFAULT_MAX_RENDERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private static RenderCoordinator instance;
+
+    /**
+     * A view, or anything else that renders frames and shows them.
+     */
+    public interface Client {
+
+        /**
+         * Called on any thread, must not block. Visible clients return at least
+         * {@link #PRIORITY_VISIBLE}, higher values render first.
+         */
+        float getRenderPriority();
+
+        /**
+         * @return the memory the prepared indicator of the client takes.
+         */
+        long getRenderByteCount();
+
+        /**
+         * Releases the prepared indicator of a hidden client, it is prepared again once the
+         * client shows.
+         */
+        void onReleaseRenderMemory();
+
+        /**
+         * Shows the latest completed frame.
+         */
+        void onFrame();
+    }
+
+    private final Object lock = new Object();
+
+    /**
+     * The renders that have not started, guarded by {@link #lock}.
+     */
+    private final List<Job> pending = new ArrayList<>();
+
+    /**
+     * The clients with a running render, guarded by {@link #lock}.
+     */
+    private final Set<Client> busy = new HashSet<>();
+
+    private int maxRenders = DEFAULT_MAX_RENDERS;
+
+    private int running;
+
+    private int workers;
+
+    private final List<Client> clients = new ArrayList<>();
+
+    private long maxBytes = Runtime.getRuntime().maxMemory() / 4;
+
+    private final Set<Client> frameRequests = new LinkedHashSet<>();
+
+    private final List<Client> frameClients = new ArrayList<>();
+
+    private boolean frameScheduled;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private Object frameCallback;
+
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    private RenderCoordinator() {
+    }
+
+    /**
+     * @return the coordinator of this process.
+     */
+    public static synchronized RenderCoordinator getInstance() {
+        if (instance == null) {
+            instance = new RenderCoordinator();
+        }
+        return instance;
+    }
+
+    /**
+     * Limits the number of renders that run at the same time, by default one less than
+     * the number of cores.
+     */
+    public void setMaxConcurrentRenders(final int maxRenders) {
+        synchronized (lock) {
+            this.maxRenders = Math.max(1, maxRenders);
+            startWorkers();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Limits the memory the prepared indicators of all clients take, by default a quarter
+     * of the heap. Only hidden clients are released to stay within the budget.
+     */
+    public void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        onMemoryChanged();
+    }
+
+    /**
+     * @return an executor that runs the renders of the given client one after another.
+     */
+    public Executor getExecutor(final Client client) {
+        return new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                synchronized (lock) {
+                    pending.add(new Job(client, command));
+                    startWorkers();
+                    lock.notifyAll();
+                }
+            }
+        };
+    }
+
+    public void add(final Client client) {
+        if (!clients.contains(client)) {
+            clients.add(client);
+        }
+        onMemoryChanged();
+    }
+
+    public void remove(final Client client) {
+        clients.remove(client);
+        frameRequests.remove(client);
+    }
+
+    /**
+     * Releases hidden clients, the least important first, until the prepared indicators fit
+     * into the budget. Called when a client has been prepared or has been hidden.
+     */
+    public void onMemoryChanged() {
+        long total = 0;
+        for (final Client client : clients) {
+            total += client.getRenderByteCount();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        final List<Client> candidates = new ArrayList<>(clients);
+        Collections.sort(candidates, new Comparator<Client>() {
+            @Override
+            public int compare(final Client lhs, final Client rhs) {
+                return Float.compare(lhs.getRenderPriority(), rhs.getRenderPriority());
+            }
+        });
+        for (final Client client : candidates) {
+            if (total <= maxBytes || client.getRenderPriority() >= PRIORITY_VISIBLE) {
+                break;
+            }
+            final long bytes = client.getRenderByteCount();
+            if (bytes > 0) {
+                client.onReleaseRenderMemory();
+                total -= bytes;
+            }
+        }
+    }
+
+    /**
+     * Shows the latest frame of the client with the next display frame. Requests of many
+     * clients are handled in one pass.
+     */
+    public void requestFrame(final Client client) {
+        frameRequests.add(client);
+        if (frameScheduled) {
+            return;
+        }
+        frameScheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postFrameCallback();
+        } else {
+            handler.post(frameRunnable);
+        }
+    }
+
+    @SuppressLint("NewApi")
+    private void postFrameCallback() {
+        if (frameCallback == null) {
+            frameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(final long frameTimeNanos) {
+                    RenderCoordinator.this.doFrame();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+    }
+
+    private void doFrame() {
+        frameScheduled = false;
+        frameClients.addAll(frameRequests);
+        frameRequests.clear();
+        for (int i = 0; i < frameClients.size(); i++) {
+            frameClients.get(i).onFrame();
+        }
+        frameClients.clear();
+    }
+
+    /**
+     * Starts worker threads up to the number of concurrent renders. Called with the lock held.
+     */
+    private void startWorkers() {
+        while (workers < maxRenders && workers < pending.size() + running) {
+            final Thread worker = new Thread(new Worker(), "render-" + workers++);
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return the most important render whose client has no render running, {@code null}
+     * if there is none or enough renders are running. Called with the lock held.
+     */
+    private Job nextJob() {
+        if (running >= maxRenders) {
+            return null;
+        }
+        Job next = null;
+        float nextPriority = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            final Job job = pending.get(i);
+            if (busy.contains(job.client)) {
+                continue;
+            }
+            final float priority = job.client.getRenderPriority();
+            // the oldest one of the same priority
+            if (next == null || priority > nextPriority) {
+                next = job;
+                nextPriority = priority;
+            }
+        }
+        if (next != null) {
+            pending.remove(next);
+            busy.add(next.client);
+            running++;
+        }
+        return next;
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                final Job job;
+                synchronized (lock) {
+                    Job next;
+                    while ((next = nextJob()) == null) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    job = next;
+                }
+                try {
+                    job.command.run();
+                } finally {
+                    synchronized (lock) {
+                        busy.remove(job.client);
+                        running--;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Job {
+
+        final Client client;
+
+        final Runnable command;
+
+        Job(final Client client, final Runnable command) {
+            this.client = client;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import eu.bakici.imageprogressbar.indicator.HybridIndicator;
+import eu.bakici.imageprogressbar.indicator.ProgressIndicator;
+import eu.bakici.imageprogressbar.raster.CancellationToken;
+
+/**
+ * Drives one indicator on one original bitmap: prepares it, hands it the progress on the
+ * thread its processing type asks for, skips and throttles renders nobody would see and
+ * refines coarse frames. The renders run on the executor of the {@link RenderCoordinator}.
+ * Shared by {@link ProgressImageView} and {@link ProgressSource}, which decide what is shown.
+ * <p>
+ * Main thread only.
+ */
+final class RenderPipeline implements OnPostExecuteListener<Void> {
+
+    /**
+     * How long the progress has to stay before a coarse frame is rendered again at full quality.
+     */
+    static final long REFINE_DELAY_MS = 150;
+
+    /**
+     * The view or the source that shows the frames.
+     */
+    interface Host {
+
+        /**
+         * @return the progress relative to the maximum, from 0 to 1.
+         */
+        float getProgressFraction();
+
+        /**
+         * @return the priority of the renders, called on the render threads.
+         */
+        float getRenderPriority();
+
+        /**
+         * Called before a render is queued, the priority may have changed.
+         */
+        void updateRenderPriority();
+
+        /**
+         * @return true while nobody sees the frames.
+         */
+        boolean isRenderSuspended();
+
+        /**
+         * Shows the latest frame of the indicator with the next display frame.
+         */
+        void requestFrame();
+
+        /**
+         * Called by the {@link RenderCoordinator} when the requested frame is due.
+         */
+        void onFrame();
+
+        /**
+         * Called once the indicator has been prepared or has taken new pixels, the renders
+         * started before have completed then.
+         */
+        void onPrepared();
+    }
+
+    private final Host host;
+
+    private ProgressIndicator indicator;
+
+    private Bitmap originalBitmap;
+
+    /**
+     * The async tasks that have not finished yet, in the order they have been started.
+     */
+    private final List<ProgressImageAsyncTask> tasks = new ArrayList<>();
+
+    /**
+     * The cancelled tasks that have not finished yet. A cancelled render may still read the
+     * original until it reaches its next check, or to its end if it does not check.
+     */
+    private final List<ProgressImageAsyncTask> cancelledTasks = new ArrayList<>();
+
+    /**
+     * The last started progress task. A newer progress supersedes it as long as it has not started.
+     */
+    private ProgressImageAsyncTask progressTask;
+
+    /**
+     * Runs the pre progress of the indicator or hands it new pixels of the original,
+     * {@code null} once it has completed.
+     */
+    private ProgressImageAsyncTask preProgressTask;
+
+    /**
+     * Set when the progress changes while the indicator is still preparing or the frames are
+     * not seen, the progress is handed to the indicator as soon as it is ready.
+     */
+    private boolean progressPending;
+
+    /**
+     * Set when the {@link RenderCoordinator} has released the indicator while the frames
+     * were not seen, it is prepared again once they are.
+     */
+    private boolean renderMemoryReleased;
+
+    private boolean registered;
+
+    /**
+     * The output key of the last rendered frame, see {@link ProgressIndicator#getOutputKey(int)}.
+     */
+    private long outputKey;
+
+    private boolean hasOutputKey;
+
+    private final FrameGovernor governor = new FrameGovernor();
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final RenderCoordinator.Client renderClient = new RenderCoordinator.Client() {
+        @Override
+        public float getRenderPriority() {
+            return host.getRenderPriority();
+        }
+
+        @Override
+        public long getRenderByteCount() {
+            if (indicator == null || originalBitmap == null || renderMemoryReleased) {
+                return 0;
+            }
+            return indicator.getPreparedByteCount(originalBitmap);
+        }
+
+        @Override
+        public void onReleaseRenderMemory() {
+            if (host.isRenderSuspended() && originalBitmap != null) {
+                releaseRenderMemory();
+            }
+        }
+
+        @Override
+        public void onFrame() {
+            host.onFrame();
+        }
+    };
+
+    private final Executor renderExecutor = RenderCoordinator.getInstance().getExecutor(renderClient);
+
+    private final Runnable requestFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            host.requestFrame();
+        }
+    };
+
+    private final Runnable refineRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refine();
+        }
+    };
+
+    /**
+     * Hands the latest progress to the indicator once the {@link #governor} allows it.
+     */
+    private final Runnable governedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            render();
+        }
+    };
+
+    RenderPipeline(final Host host) {
+        this.host = host;
+    }
+
+    @Nullable
+    ProgressIndicator getIndicator() {
+        return indicator;
+    }
+
+    /**
+     * Replaces the indicator, the previous one is cleaned up. Call {@link #prepare()} afterwards.
+     */
+    void setIndicator(@Nullable final ProgressIndicator progressIndicator) {
+        if (indicator != null && indicator != progressIndicator) {
+            cancelTasks();
+            cleanUp(indicator);
+        }
+        indicator = progressIndicator;
+    }
+
+    @Nullable
+    Bitmap getOriginalBitmap() {
+        return originalBitmap;
+    }
+
+    /**
+     * Sets the bitmap the indicator works on. Call {@link #prepare()} afterwards.
+     */
+    void setOriginalBitmap(@Nullable final Bitmap bitmap) {
+        originalBitmap = bitmap;
+    }
+
+    /**
+     * Takes part in the memory budget of the {@link RenderCoordinator}.
+     */
+    void register() {
+        if (!registered) {
+            registered = true;
+            RenderCoordinator.getInstance().add(renderClient);
+        }
+    }
+
+    void unregister() {
+        if (registered) {
+            registered = false;
+            RenderCoordinator.getInstance().remove(renderClient);
+        }
+    }
+
+    /**
+     * Shows the latest frame with the next display frame, together with the frames of all
+     * other clients of the {@link RenderCoordinator}.
+     */
+    void requestCoordinatedFrame() {
+        RenderCoordinator.getInstance().requestFrame(renderClient);
+    }
+
+    void setCpuShare(final float share) {
+        governor.setCpuShare(share);
+    }
+
+    float getCpuShare() {
+        return governor.getCpuShare();
+    }
+
+    /**
+     * @return true while the indicator is being prepared.
+     */
+    boolean isPreparing() {
+        return preProgressTask != null;
+    }
+
+    /**
+     * @return true if no task may read the original bitmap, cancelled ones included.
+     */
+    boolean isIdle() {
+        return tasks.isEmpty() && cancelledTasks.isEmpty();
+    }
+
+    /**
+     * Prepares the indicator on a render thread for all processing types. The work for the
+     * previous image or indicator is orphaned.
+     */
+    void prepare() {
+        if (indicator == null || originalBitmap == null) {
+            return;
+        }
+        cancelTasks();
+        governor.reset();
+        hasOutputKey = false;
+        renderMemoryReleased = false;
+        if (indicator.isPreparedFor(originalBitmap)) {
+            host.requestFrame();
+            return;
+        }
+        preProgressTask = new ProgressImageAsyncTask(indicator, host.getProgressFraction(), true, this);
+        execute(preProgressTask);
+        // the progress may have been set before the image
+        progressPending = host.getProgressFraction() > 0;
+    }
+
+    /**
+     * Replaces the original bitmap by one of the same size that shows more of the same image,
+     * without preparing the indicator again, see {@link ProgressIndicator#onSourceUpdated(Bitmap)}.
+     *
+     * @return false if the indicator is not prepared for the current original or the size
+     * differs, it has to be prepared for the bitmap then.
+     */
+    boolean updateOriginalBitmap(final Bitmap bitmap) {
+        if (indicator == null || originalBitmap == null || preProgressTask != null
+                || !indicator.isPreparedFor(originalBitmap)
+                || bitmap.getWidth() != originalBitmap.getWidth() || bitmap.getHeight() != originalBitmap.getHeight()) {
+            return false;
+        }
+        originalBitmap = bitmap;
+        hasOutputKey = false;
+        preProgressTask = ProgressImageAsyncTask.forSourceUpdate(indicator, this);
+        execute(preProgressTask);
+        return true;
+    }
+
+    /**
+     * Hands the current progress to the indicator, or records it while the indicator is
+     * preparing or the frames are not seen.
+     */
+    void render() {
+        handler.removeCallbacks(refineRunnable);
+        if (indicator == null || originalBitmap == null) {
+            return;
+        }
+        if (preProgressTask != null || host.isRenderSuspended()) {
+            // applied once the indicator is prepared and the frames are seen
+            progressPending = true;
+            return;
+        }
+        final float fraction = host.getProgressFraction();
+        final long key = indicator.getFractionOutputKey(fraction);
+        if (hasOutputKey && key == outputKey) {
+            // the indicator would render the frame it already has
+            return;
+        }
+        handler.removeCallbacks(governedRunnable);
+        final long delay = governor.getDelayMillis();
+        if (delay > 0 && fraction < 1) {
+            // the final frame is never held back
+            handler.postDelayed(governedRunnable, delay);
+            return;
+        }
+        governor.onRenderStarted();
+        outputKey = key;
+        hasOutputKey = true;
+        final long start = System.nanoTime();
+        switch (indicator.getIndicationProcessingType()) {
+            case ProgressIndicator.SYNC:
+                indicator.onProgressFraction(originalBitmap, fraction, CancellationToken.NONE);
+                governor.onRendered(System.nanoTime() - start);
+                host.requestFrame();
+                break;
+            case ProgressIndicator.ASYNC:
+                if (progressTask != null && !progressTask.isStarted()) {
+                    // superseded before it started, the running one is left to finish so
+                    // that a fast progress still shows frames
+                    progressTask.cancelRender();
+                }
+                progressTask = new ProgressImageAsyncTask(indicator, fraction, false, this);
+                execute(progressTask);
+                break;
+            case ProgressIndicator.HYBRID:
+                ((HybridIndicator) indicator).onProgressFraction(originalBitmap, fraction,
+                        new HybridIndicator.OnProgressIndicationUpdatedListener() {
+                            @Override
+                            public void onProgressIndicationUpdated(final Bitmap bitmap) {
+                                host.requestFrame();
+                            }
+                        }
+                );
+                governor.onRendered(System.nanoTime() - start);
+                break;
+        }
+    }
+
+    /**
+     * Renders the current progress as soon as the indicator is prepared and the frames are
+     * seen, even if it has been rendered before.
+     */
+    void renderWhenReady() {
+        progressPending = true;
+        applyPendingProgress();
+    }
+
+    /**
+     * Called when the frames have been shown or hidden. Renders the latest progress once
+     * they are seen again.
+     */
+    void onVisibilityChanged() {
+        if (host.isRenderSuspended()) {
+            if (progressTask != null && !progressTask.isStarted()) {
+                // nobody would see it, the latest progress is rendered on resume instead
+                progressTask.cancelRender();
+                progressTask = null;
+                progressPending = true;
+            }
+            if (registered) {
+                RenderCoordinator.getInstance().onMemoryChanged();
+            }
+        } else if (renderMemoryReleased) {
+            prepare();
+            progressPending = true;
+        } else {
+            applyPendingProgress();
+        }
+    }
+
+    /**
+     * Cancels the renders and releases the memory of the indicator behind them, it keeps its
+     * threads and shows the base frame until it is prepared again, see
+     * {@link ProgressIndicator#releaseRenderMemory()}.
+     */
+    void releaseRenderMemory() {
+        cancelTasks();
+        if (indicator == null || renderMemoryReleased) {
+            return;
+        }
+        renderMemoryReleased = true;
+        final ProgressIndicator released = indicator;
+        renderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                released.releaseRenderMemory();
+                handler.post(requestFrameRunnable);
+            }
+        });
+    }
+
+    /**
+     * Cancels the renders and cleans up the indicator.
+     */
+    void destroy() {
+        cancelTasks();
+        if (indicator != null) {
+            cleanUp(indicator);
+        }
+    }
+
+    /**
+     * Cleans up an indicator behind its cancelled renders. A render that does not check its
+     * token, e.g. the RenderScript blur, completes first, the main thread does not wait for it.
+     */
+    private void cleanUp(final ProgressIndicator cleaned) {
+        renderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cleaned.cleanUp();
+            }
+        });
+    }
+
+    /**
+     * Cancels all tasks that have not finished yet. Running renders stop at their next check,
+     * they count for {@link #isIdle()} until they have finished.
+     */
+    void cancelTasks() {
+        handler.removeCallbacks(refineRunnable);
+        handler.removeCallbacks(governedRunnable);
+        for (final ProgressImageAsyncTask task : tasks) {
+            task.cancelRender();
+        }
+        cancelledTasks.addAll(tasks);
+        tasks.clear();
+        progressTask = null;
+        preProgressTask = null;
+        progressPending = false;
+    }
+
+    private void applyPendingProgress() {
+        if (progressPending && preProgressTask == null && !host.isRenderSuspended()) {
+            progressPending = false;
+            // the progress may have been rendered before, the key check is skipped
+            hasOutputKey = false;
+            render();
+        }
+    }
+
+    private void execute(final ProgressImageAsyncTask task) {
+        tasks.add(task);
+        host.updateRenderPriority();
+        task.executeOnExecutor(renderExecutor, originalBitmap);
+    }
+
+    @Override
+    public void onPostExecute(final Void param) {
+        host.requestFrame();
+        applyPendingProgress();
+        scheduleRefinement();
+    }
+
+    /**
+     * Renders a coarse frame again at full quality once the progress has not changed for
+     * {@link #REFINE_DELAY_MS}, see {@link ProgressIndicator#needsRefinement()}.
+     */
+    private void scheduleRefinement() {
+        handler.removeCallbacks(refineRunnable);
+        if (indicator != null && progressTask == null && !progressPending && indicator.needsRefinement()) {
+            handler.postDelayed(refineRunnable, REFINE_DELAY_MS);
+        }
+    }
+
+    private void refine() {
+        if (indicator == null || originalBitmap == null || progressTask != null || preProgressTask != null
+                || host.isRenderSuspended() || !indicator.needsRefinement()) {
+            return;
+        }
+        indicator.requestRefinement();
+        progressTask = new ProgressImageAsyncTask(indicator, host.getProgressFraction(), false, this);
+        execute(progressTask);
+    }
+
+    @Override
+    public void onFinished(final AsyncTask<?, ?, ?> task) {
+        tasks.remove(task);
+        cancelledTasks.remove(task);
+        final long renderNanos = ((ProgressImageAsyncTask) task).getRenderNanos();
+        if (renderNanos > 0) {
+            governor.onRendered(renderNanos);
+        }
+        if (task == progressTask) {
+            progressTask = null;
+        }
+        if (task == preProgressTask) {
+            preProgressTask = null;
+            host.onPrepared();
+            if (registered) {
+                // the prepared indicator takes its memory now
+                RenderCoordinator.getInstance().onMemoryChanged();
+            }
+        }
+    }
+}
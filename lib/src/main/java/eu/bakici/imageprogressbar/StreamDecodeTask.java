@@ -0,0 +1,144 @@
+package eu.bakici.imageprogressbar;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import eu.bakici.imageprogressbar.utils.BitmapDecoder;
+import eu.bakici.imageprogressbar.utils.BitmapPool;
+
+/**
+ * Reads an encoded image from a stream of a known length and hands the view the received
+ * bytes as progress and the received part of the image as it arrives. The image is decoded
+ * again only after a share of the bytes has arrived and not more often than it takes to
+ * decode, the last decode is the complete image. The parts are decoded into pooled bitmaps,
+ * the view puts the ones it has replaced back.
+ */
+class StreamDecodeTask extends AsyncTask<Void, Object, Bitmap> {
+
+    private static final String TAG = StreamDecodeTask.class.getSimpleName();
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The received part of the image is decoded at most this many times.
+     */
+    private static final int PARTIAL_DECODES = 8;
+
+    /**
+     * After a decode the task waits this many times as long as it took before the next one,
+     * so decoding takes at most a fifth of the time.
+     */
+    private static final int DECODE_TIME_FACTOR = 4;
+
+    private final ProgressImageView view;
+
+    private final InputStream stream;
+
+    private final int length;
+
+    private final int reqWidth;
+
+    private final int reqHeight;
+
+    /**
+     * @param length    the number of bytes of the image.
+     * @param reqWidth  the width the image is shown at, 0 if it is not known.
+     * @param reqHeight the height the image is shown at, 0 if it is not known.
+     */
+    StreamDecodeTask(final ProgressImageView view, final InputStream stream, final int length,
+                     final int reqWidth, final int reqHeight) {
+        this.view = view;
+        this.stream = stream;
+        this.length = length;
+        this.reqWidth = reqWidth;
+        this.reqHeight = reqHeight;
+    }
+
+    @Override
+    protected Bitmap doInBackground(final Void... params) {
+        final byte[] data = new byte[length];
+        int received = 0;
+        int nextDecodeAt = length / PARTIAL_DECODES;
+        long nextDecodeTime = 0;
+        try {
+            while (received < length && !isCancelled()) {
+                final int read = stream.read(data, received, Math.min(CHUNK_SIZE, length - received));
+                if (read < 0) {
+                    break;
+                }
+                received += read;
+                publishProgress(received);
+                if (received < length && received >= nextDecodeAt && System.nanoTime() >= nextDecodeTime) {
+                    final long start = System.nanoTime();
+                    final Bitmap partial = BitmapDecoder.decodePrefix(data, received, reqWidth, reqHeight,
+                            BitmapPool.getInstance());
+                    final long end = System.nanoTime();
+                    nextDecodeAt = received + length / PARTIAL_DECODES;
+                    nextDecodeTime = end + (end - start) * DECODE_TIME_FACTOR;
+                    if (partial != null) {
+                        publishProgress(partial);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "reading the image stopped after " + received + " of " + length + " bytes", e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // nothing more to read anyway
+            }
+        }
+        if (isCancelled() || received == 0) {
+            return null;
+        }
+        return BitmapDecoder.decodePrefix(data, received, reqWidth, reqHeight, BitmapPool.getInstance());
+    }
+
+    @Override
+    protected void onProgressUpdate(final Object... values) {
+        if (isCancelled()) {
+            if (values[0] instanceof Bitmap) {
+                BitmapPool.getInstance().release((Bitmap) values[0]);
+            }
+            return;
+        }
+        if (values[0] instanceof Bitmap) {
+            view.onStreamImage((Bitmap) values[0], false);
+        } else {
+            view.onStreamProgress((Integer) values[0]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(final Bitmap bitmap) {
+        view.onStreamFinished(this, bitmap);
+    }
+
+    @Override
+    protected void onCancelled(final Bitmap bitmap) {
+        if (bitmap != null) {
+            BitmapPool.getInstance().release(bitmap);
+        }
+    }
+}
@@ -16,39 +16,21 @@ package eu.bakici.imageprogressbar.indicator;
  * limitations under the License.
  */
 
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.support.annotation.IntRange;
-
-import eu.bakici.imageprogressbar.utils.IndicatorUtils;
+import eu.bakici.imageprogressbar.raster.AlphaRenderer;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
 
 /**
  * Created on 13.11.16.
  */
 
-public class AlphaIndicator extends ProgressIndicator {
-
-    private static final int MAX_ALPHA = 255;
+public class AlphaIndicator extends RasterIndicator {
 
     public AlphaIndicator() {
         super(SYNC);
     }
 
     @Override
-    public void onPreProgress(Bitmap originalBitmap) {
-        preBitmap = IndicatorUtils.convertGrayscale(originalBitmap);
-        currentBitmap = preBitmap;
-    }
-
-    @Override
-    public synchronized void onProgress(Bitmap originalBitmap, @IntRange(from = 0, to = 100) int progressPercent) {
-        final Bitmap output = Bitmap.createBitmap(originalBitmap.getWidth(), originalBitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(output);
-        Paint alphaPaint = new Paint();
-        alphaPaint.setAlpha(IndicatorUtils.calcPercent(MAX_ALPHA, progressPercent));
-        canvas.drawBitmap(preBitmap, 0, 0, new Paint());
-        canvas.drawBitmap(originalBitmap, 0,0, alphaPaint);
-        currentBitmap = output;
+    protected FrameRenderer createRenderer() {
+        return new AlphaRenderer();
     }
 }
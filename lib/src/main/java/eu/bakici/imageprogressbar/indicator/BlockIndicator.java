@@ -25,6 +25,8 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.List;
 
+import eu.bakici.imageprogressbar.raster.BlockRenderer;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
 import eu.bakici.imageprogressbar.utils.IndicatorUtils;
 
 /**
@@ -47,7 +49,11 @@ public abstract class BlockIndicator extends HybridIndicator {
     public static final int BLOCK_SIZE_EXTRA_SMALL = 20;
 
     /**
-     * The blocks in rect objects.
+     * Does the pixel work and keeps the order in which the blocks are revealed.
+     */
+    protected volatile BlockRenderer renderer;
+    /**
+     * The blocks in rect objects, in the order they are revealed.
      */
     protected List<Rect> blocks;
     /**
@@ -82,33 +88,67 @@ public abstract class BlockIndicator extends HybridIndicator {
 
     @Override
     public void onPreProgress(final Bitmap originalBitmap) {
-        preBitmap = IndicatorUtils.convertGrayscale(originalBitmap);
         width = originalBitmap.getWidth();
         height = originalBitmap.getHeight();
-        // adjusting the number of rows and columns
-        int numberOfCols = (width / pixels) + 1;
-        int numberOfRows = (height / pixels) + 1;
-        int blockSumSize = pixels;
+        // only published once it is prepared
+        final BlockRenderer prepared = new BlockRenderer(pixels);
+        prepared.prepare(IndicatorUtils.asRaster(originalBitmap));
+        renderer = prepared;
+        preBitmap = toPreBitmap(renderer.getGrayscale());
+        blockSum = renderer.getBlockSum();
+        onPostBlockInitialization();
 
-        blockSum = numberOfCols * numberOfRows;
         blocks = new ArrayList<>(blockSum);
-
+        final int[] bounds = new int[4];
         for (int i = 0; i < blockSum; i++) {
-            int col = i % numberOfCols;
-            int row = i / numberOfCols;
-
-            int left = col * blockSumSize;
-            int top = row * blockSumSize;
-            int right = Math.min(left + blockSumSize, width);
-            int bottom = Math.min(top + blockSumSize, height);
-            Rect block = new Rect(left, top, right, bottom);
+            renderer.getBlock(i, bounds);
+            Rect block = new Rect(bounds[0], bounds[1], bounds[2], bounds[3]);
             blocks.add(block);
         }
-        onPostBlockInitialization();
         currentBitmap = preBitmap;
     }
 
+    /**
+     * Called after the image has been sliced and before {@link #blocks} is filled,
+     * e.g. to change the order in which the renderer reveals the blocks.
+     */
     protected void onPostBlockInitialization() {
         // in case someone wants to do something after the blocks have been initialized.
     }
+
+    @Override
+    public FrameRenderer createFrameRenderer() {
+        return new BlockRenderer(pixels);
+    }
+
+    @Override
+    public long getOutputKey(final int progressPercent) {
+        final BlockRenderer current = renderer;
+        return current != null ? current.getBlockCount(progressPercent) : progressPercent;
+    }
+
+    @Override
+    public long getFractionOutputKey(final float progress) {
+        final BlockRenderer current = renderer;
+        return current != null ? current.getBlockCount(progress) : super.getFractionOutputKey(progress);
+    }
+
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+        if (renderer != null) {
+            renderer.release();
+        }
+    }
+
+    @Override
+    public synchronized void releaseRenderMemory() {
+        super.releaseRenderMemory();
+        final BlockRenderer released = renderer;
+        if (released != null) {
+            renderer = null;
+            released.release();
+        }
+        blocks = null;
+    }
 }
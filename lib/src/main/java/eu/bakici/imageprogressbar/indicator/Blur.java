@@ -9,257 +9,136 @@ import android.renderscript.Allocation;
 import android.renderscript.Element;
 import android.renderscript.RenderScript;
 import android.renderscript.ScriptIntrinsicBlur;
-import android.util.Log;
+
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.RasterOps;
+import eu.bakici.imageprogressbar.utils.IndicatorUtils;
 
 public class Blur {
 
     private static final String TAG = "Blur";
 
+    /**
+     * Blurs an ARGB_8888 bitmap into an existing bitmap of the same size and config,
+     * with the RenderScript intrinsic.
+     */
+    @SuppressLint("NewApi")
+    public static void fastblur(Context context, Bitmap sentBitmap, int radius, Bitmap bitmap) {
+        final RenderScript rs = RenderScript.create(context);
+        final Allocation input = Allocation.createFromBitmap(rs, sentBitmap, Allocation.MipmapControl.MIPMAP_NONE,
+            Allocation.USAGE_SCRIPT);
+        final Allocation output = Allocation.createTyped(rs, input.getType());
+        final ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
+        script.setRadius(radius);
+        script.setInput(input);
+        script.forEach(output);
+        output.copyTo(bitmap);
+    }
+
     @SuppressLint("NewApi")
     public static Bitmap fastblur(Context context, Bitmap sentBitmap, int radius) {
 
         if (Build.VERSION.SDK_INT > 16) {
             Bitmap bitmap = sentBitmap.copy(sentBitmap.getConfig(), true);
-
-            final RenderScript rs = RenderScript.create(context);
-            final Allocation input = Allocation.createFromBitmap(rs, sentBitmap, Allocation.MipmapControl.MIPMAP_NONE,
-                Allocation.USAGE_SCRIPT);
-            final Allocation output = Allocation.createTyped(rs, input.getType());
-            final ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-            script.setRadius(radius /* e.g. 3.f */);
-            script.setInput(input);
-            script.forEach(output);
-            output.copyTo(bitmap);
+            fastblur(context, sentBitmap, radius, bitmap);
             return bitmap;
         }
 
-        // Stack Blur v1.0 from
-        // http://www.quasimondo.com/StackBlurForCanvas/StackBlurDemo.html
-        //
-        // Java Author: Mario Klingemann <mario at quasimondo.com>
-        // http://incubator.quasimondo.com
-        // created Feburary 29, 2004
-        // Android port : Yahel Bouaziz <yahel at kayenko.com>
-        // http://www.kayenko.com
-        // ported april 5th, 2012
-
-        // This is a compromise between Gaussian Blur and Box blur
-        // It creates much better looking blurs than Box Blur, but is
-        // 7x faster than my Gaussian Blur implementation.
-        //
-        // I called it Stack Blur because this describes best how this
-        // filter works internally: it creates a kind of moving stack
-        // of colors whilst scanning through the image. Thereby it
-        // just has to add one new block of color to the right side
-        // of the stack and remove the leftmost color. The remaining
-        // colors on the topmost layer of the stack are either added on
-        // or reduced by one, depending on if they are on the right or
-        // on the left side of the stack.
-        //
-        // If you are using this algorithm in your code please add
-        // the following line:
-        //
         // Stack Blur Algorithm by Mario Klingemann <mario@quasimondo.com>
-
-        Bitmap bitmap = sentBitmap.copy(sentBitmap.getConfig(), true);
+        // see RasterOps#stackBlur
 
         if (radius < 1) {
             return (null);
         }
 
-        int w = bitmap.getWidth();
-        int h = bitmap.getHeight();
-
-        int[] pix = new int[w * h];
-        Log.e("pix", w + " " + h + " " + pix.length);
-        bitmap.getPixels(pix, 0, w, 0, 0, w, h);
+        final IntRaster blurred = new IntRaster(sentBitmap.getWidth(), sentBitmap.getHeight());
+        RasterOps.stackBlur(IndicatorUtils.asRaster(sentBitmap), blurred, radius);
+        Bitmap bitmap = sentBitmap.copy(sentBitmap.getConfig(), true);
+        IndicatorUtils.copyToBitmap(blurred, bitmap);
+        return (bitmap);
+    }
 
-        int wm = w - 1;
-        int hm = h - 1;
-        int wh = w * h;
-        int div = radius + radius + 1;
+    /**
+     * Keeps the RenderScript context, the script and the allocations for the sizes blurred
+     * last, so that a frame does not create them again. Not thread safe, {@link #destroy()}
+     * it once it is not needed anymore.
+     */
+    @SuppressLint("NewApi")
+    static final class Intrinsic {
 
-        int r[] = new int[wh];
-        int g[] = new int[wh];
-        int b[] = new int[wh];
-        int rsum, gsum, bsum, x, y, i, p, yp, yi, yw;
-        int vmin[] = new int[Math.max(w, h)];
+        /**
+         * The full-size frames and the coarse ones.
+         */
+        private static final int SIZES = 2;
 
-        int divsum = (div + 1) >> 1;
-        divsum *= divsum;
-        int dv[] = new int[256 * divsum];
-        for (i = 0; i < 256 * divsum; i++) {
-            dv[i] = (i / divsum);
-        }
+        private final RenderScript rs;
 
-        yw = yi = 0;
+        private final ScriptIntrinsicBlur script;
 
-        int[][] stack = new int[div][3];
-        int stackpointer;
-        int stackstart;
-        int[] sir;
-        int rbs;
-        int r1 = radius + 1;
-        int routsum, goutsum, boutsum;
-        int rinsum, ginsum, binsum;
+        private final Allocation[] inputs = new Allocation[SIZES];
 
-        for (y = 0; y < h; y++) {
-            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-            for (i = -radius; i <= radius; i++) {
-                p = pix[yi + Math.min(wm, Math.max(i, 0))];
-                sir = stack[i + radius];
-                sir[0] = (p & 0xff0000) >> 16;
-                sir[1] = (p & 0x00ff00) >> 8;
-                sir[2] = (p & 0x0000ff);
-                rbs = r1 - Math.abs(i);
-                rsum += sir[0] * rbs;
-                gsum += sir[1] * rbs;
-                bsum += sir[2] * rbs;
-                if (i > 0) {
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-                } else {
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-                }
-            }
-            stackpointer = radius;
+        private final Allocation[] outputs = new Allocation[SIZES];
 
-            for (x = 0; x < w; x++) {
+        private final int[] widths = new int[SIZES];
 
-                r[yi] = dv[rsum];
-                g[yi] = dv[gsum];
-                b[yi] = dv[bsum];
+        private final int[] heights = new int[SIZES];
 
-                rsum -= routsum;
-                gsum -= goutsum;
-                bsum -= boutsum;
+        /**
+         * The slot that has been used last, the other one is replaced by a new size.
+         */
+        private int lastSlot;
 
-                stackstart = stackpointer - radius + div;
-                sir = stack[stackstart % div];
+        Intrinsic(final Context context) {
+            rs = RenderScript.create(context);
+            script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
+        }
 
-                routsum -= sir[0];
-                goutsum -= sir[1];
-                boutsum -= sir[2];
+        /**
+         * Blurs an ARGB_8888 bitmap into an existing bitmap of the same size and config.
+         */
+        void blur(final Bitmap source, final int radius, final Bitmap target) {
+            final int slot = getSlot(source);
+            inputs[slot].copyFrom(source);
+            script.setRadius(radius);
+            script.setInput(inputs[slot]);
+            script.forEach(outputs[slot]);
+            outputs[slot].copyTo(target);
+        }
 
-                if (y == 0) {
-                    vmin[x] = Math.min(x + radius + 1, wm);
+        private int getSlot(final Bitmap source) {
+            for (int i = 0; i < SIZES; i++) {
+                if (inputs[i] != null && widths[i] == source.getWidth() && heights[i] == source.getHeight()) {
+                    lastSlot = i;
+                    return i;
                 }
-                p = pix[yw + vmin[x]];
-
-                sir[0] = (p & 0xff0000) >> 16;
-                sir[1] = (p & 0x00ff00) >> 8;
-                sir[2] = (p & 0x0000ff);
-
-                rinsum += sir[0];
-                ginsum += sir[1];
-                binsum += sir[2];
-
-                rsum += rinsum;
-                gsum += ginsum;
-                bsum += binsum;
-
-                stackpointer = (stackpointer + 1) % div;
-                sir = stack[(stackpointer) % div];
-
-                routsum += sir[0];
-                goutsum += sir[1];
-                boutsum += sir[2];
-
-                rinsum -= sir[0];
-                ginsum -= sir[1];
-                binsum -= sir[2];
-
-                yi++;
             }
-            yw += w;
+            final int slot = (lastSlot + 1) % SIZES;
+            destroy(slot);
+            inputs[slot] = Allocation.createFromBitmap(rs, source, Allocation.MipmapControl.MIPMAP_NONE,
+                    Allocation.USAGE_SCRIPT);
+            outputs[slot] = Allocation.createTyped(rs, inputs[slot].getType());
+            widths[slot] = source.getWidth();
+            heights[slot] = source.getHeight();
+            lastSlot = slot;
+            return slot;
         }
-        for (x = 0; x < w; x++) {
-            rinsum = ginsum = binsum = routsum = goutsum = boutsum = rsum = gsum = bsum = 0;
-            yp = -radius * w;
-            for (i = -radius; i <= radius; i++) {
-                yi = Math.max(0, yp) + x;
-
-                sir = stack[i + radius];
-
-                sir[0] = r[yi];
-                sir[1] = g[yi];
-                sir[2] = b[yi];
-
-                rbs = r1 - Math.abs(i);
-
-                rsum += r[yi] * rbs;
-                gsum += g[yi] * rbs;
-                bsum += b[yi] * rbs;
 
-                if (i > 0) {
-                    rinsum += sir[0];
-                    ginsum += sir[1];
-                    binsum += sir[2];
-                } else {
-                    routsum += sir[0];
-                    goutsum += sir[1];
-                    boutsum += sir[2];
-                }
-
-                if (i < hm) {
-                    yp += w;
-                }
+        private void destroy(final int slot) {
+            if (inputs[slot] != null) {
+                inputs[slot].destroy();
+                outputs[slot].destroy();
+                inputs[slot] = null;
+                outputs[slot] = null;
             }
-            yi = x;
-            stackpointer = radius;
-            for (y = 0; y < h; y++) {
-                // Preserve alpha channel: ( 0xff000000 & pix[yi] )
-                pix[yi] = (0xff000000 & pix[yi]) | (dv[rsum] << 16) | (dv[gsum] << 8) | dv[bsum];
-
-                rsum -= routsum;
-                gsum -= goutsum;
-                bsum -= boutsum;
-
-                stackstart = stackpointer - radius + div;
-                sir = stack[stackstart % div];
-
-                routsum -= sir[0];
-                goutsum -= sir[1];
-                boutsum -= sir[2];
-
-                if (x == 0) {
-                    vmin[y] = Math.min(y + r1, hm) * w;
-                }
-                p = x + vmin[y];
-
-                sir[0] = r[p];
-                sir[1] = g[p];
-                sir[2] = b[p];
-
-                rinsum += sir[0];
-                ginsum += sir[1];
-                binsum += sir[2];
-
-                rsum += rinsum;
-                gsum += ginsum;
-                bsum += binsum;
-
-                stackpointer = (stackpointer + 1) % div;
-                sir = stack[stackpointer];
-
-                routsum += sir[0];
-                goutsum += sir[1];
-                boutsum += sir[2];
-
-                rinsum -= sir[0];
-                ginsum -= sir[1];
-                binsum -= sir[2];
+        }
 
-                yi += w;
+        void destroy() {
+            for (int i = 0; i < SIZES; i++) {
+                destroy(i);
             }
+            script.destroy();
+            rs.destroy();
         }
-
-        Log.e("pix", w + " " + h + " " + pix.length);
-        bitmap.setPixels(pix, 0, w, 0, 0, w, h);
-        return (bitmap);
     }
 
 }
@@ -18,41 +18,160 @@ package eu.bakici.imageprogressbar.indicator;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.FloatRange;
 import android.support.annotation.IntRange;
 
-import eu.bakici.imageprogressbar.utils.IndicatorUtils;
+import eu.bakici.imageprogressbar.raster.BlurRenderer;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
+import eu.bakici.imageprogressbar.raster.RasterOps;
 
-public class BlurIndicator extends ProgressIndicator {
+public class BlurIndicator extends RasterIndicator {
 
     private static final String TAG = BlurIndicator.class.getSimpleName();
 
-    private static final int MAX_RADIUS = 25;
+    private static final int MAX_RADIUS = BlurRenderer.MAX_RADIUS;
 
     private final Context context;
 
+    /**
+     * Blurs the frames while the original is an ARGB_8888 bitmap and RenderScript is
+     * available, {@code null} while the StackBlur of the {@link BlurRenderer} is used.
+     * Kept for the life of the indicator, so that a frame does not create a RenderScript
+     * context and allocations.
+     */
+    private Blur.Intrinsic intrinsic;
+
     public BlurIndicator(final Context context) {
         super(ASYNC);
         this.context = context;
     }
 
+    @Override
+    protected FrameRenderer createRenderer() {
+        return new BlurRenderer();
+    }
+
+    @Override
+    protected FrameRenderer createCoarseRenderer(final int scale) {
+        return new BlurRenderer(scale);
+    }
+
+    @Override
+    protected String getFrameCacheKey() {
+        // the intrinsic and the StackBlur give slightly different frames
+        return intrinsic != null ? "blur-rs" : "blur";
+    }
+
     @Override
     public void onPreProgress(final Bitmap originalBitmap) {
-        currentBitmap = Blur.fastblur(context, originalBitmap, MAX_RADIUS);
+        if (!useRenderScript() || originalBitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            releaseIntrinsic();
+            super.onPreProgress(originalBitmap);
+            return;
+        }
+        resetQuality();
+        if (intrinsic == null) {
+            intrinsic = new Blur.Intrinsic(context);
+        }
+        hashOriginal(originalBitmap);
+        getCancellationToken().throwIfCancelled();
+        final Bitmap pre = obtainPreBitmap(originalBitmap.getWidth(), originalBitmap.getHeight());
+        intrinsic.blur(originalBitmap, MAX_RADIUS, pre);
+        preBitmap = pre;
+        currentBitmap = preBitmap;
     }
 
+    /**
+     * The intrinsic blurs the whole image anyway, it is prepared again on the new pixels.
+     */
     @Override
-    public synchronized void onProgress(final Bitmap originalBitmap, @IntRange(from = 0, to = 100) int progressPercent) {
+    public void onSourceUpdated(final Bitmap originalBitmap) {
+        if (intrinsic != null) {
+            onPreProgress(originalBitmap);
+            return;
+        }
+        super.onSourceUpdated(originalBitmap);
+    }
 
-        if (progressPercent == 100) {
-            currentBitmap = originalBitmap;
+    @Override
+    public void onProgress(final Bitmap originalBitmap, @IntRange(from = 0, to = 100) int progressPercent) {
+        if (intrinsic == null) {
+            super.onProgress(originalBitmap, progressPercent);
+            return;
         }
-        final int radius = MAX_RADIUS - IndicatorUtils.calcPercent(MAX_RADIUS, progressPercent);
+        final int radius = BlurRenderer.getRadius(progressPercent);
         if (radius <= 0) {
-            // insanity check
             currentBitmap = originalBitmap;
             return;
         }
-        currentBitmap = Blur.fastblur(context, originalBitmap, radius);
+        final String key = getFrameKey(originalBitmap, radius);
+        if (loadFrame(key, originalBitmap)) {
+            return;
+        }
+        // the RenderScript blur cannot be stopped, a cancelled render must not start it
+        getCancellationToken().throwIfCancelled();
+        final int scale = nextQualityScale();
+        final long start = System.nanoTime();
+        if (scale > 1) {
+            // blurred at a lower resolution with a smaller radius and scaled up
+            final Bitmap scaled = getScaledOriginal(originalBitmap, scale);
+            final Bitmap coarse = obtainCoarseBitmap(scaled.getWidth(), scaled.getHeight());
+            intrinsic.blur(scaled, Math.max(1, (radius + scale - 1) / scale), coarse);
+            currentBitmap = toScaledOutputBitmap(coarse, originalBitmap);
+            onQualityRendered(scale, System.nanoTime() - start);
+            return;
+        }
+        // blurred into a pooled output bitmap instead of a new copy per frame
+        final Bitmap output = obtainOutputBitmap(originalBitmap.getWidth(), originalBitmap.getHeight());
+        intrinsic.blur(originalBitmap, radius, output);
+        currentBitmap = output;
+        onQualityRendered(1, System.nanoTime() - start);
+        storeFrame(key);
+    }
+
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+        releaseIntrinsic();
+    }
+
+    @Override
+    public synchronized void releaseRenderMemory() {
+        super.releaseRenderMemory();
+        releaseIntrinsic();
+    }
+
+    /**
+     * The blur radius only takes whole steps, so the progress is rounded to percents.
+     */
+    @Override
+    public void onProgressFraction(final Bitmap originalBitmap, @FloatRange(from = 0, to = 1) float progress) {
+        onProgress(originalBitmap, RasterOps.toPercent(progress));
     }
 
+    @Override
+    public long getFractionOutputKey(@FloatRange(from = 0, to = 1) float progress) {
+        return getOutputKey(RasterOps.toPercent(progress));
+    }
+
+    @Override
+    public long getOutputKey(@IntRange(from = 0, to = 100) int progressPercent) {
+        return BlurRenderer.getRadius(progressPercent);
+    }
+
+    private void releaseIntrinsic() {
+        if (intrinsic != null) {
+            intrinsic.destroy();
+            intrinsic = null;
+        }
+    }
+
+    /**
+     * The RenderScript intrinsic is used where available, older devices and bitmaps that
+     * are not ARGB_8888 use the StackBlur of the {@link BlurRenderer}.
+     */
+    private static boolean useRenderScript() {
+        return Build.VERSION.SDK_INT > 16;
+    }
 }
@@ -16,28 +16,19 @@ package eu.bakici.imageprogressbar.indicator;
  * limitations under the License.
  */
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapShader;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
-import android.graphics.RectF;
-import android.graphics.Shader;
 import android.support.annotation.IntDef;
-import android.support.annotation.IntRange;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
-import eu.bakici.imageprogressbar.utils.IndicatorUtils;
+import eu.bakici.imageprogressbar.raster.CircularRenderer;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
 
-public class CircularIndicator extends ProgressIndicator {
+public class CircularIndicator extends RasterIndicator {
 
 
     public static final int CLOCKWISE = 0;
     public static final int COUNTERCLOCKWISE = 1;
-    private static final int FULL_CIRCLE = 360;
 
     /**
      * Type of how the image will be processed.
@@ -51,7 +42,6 @@ public class CircularIndicator extends ProgressIndicator {
 
     }
 
-    private BitmapShader shader;
     private final int turn;
 
     public CircularIndicator() {
@@ -63,32 +53,8 @@ public class CircularIndicator extends ProgressIndicator {
         this.turn = turn;
     }
 
-
-    @Override
-    public void onPreProgress(final Bitmap originalBitmap) {
-        preBitmap = IndicatorUtils.convertGrayscale(originalBitmap);
-        shader = new BitmapShader(originalBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
-        currentBitmap = preBitmap;
-    }
-
     @Override
-    public void onProgress(final Bitmap source, @IntRange(from = 0, to = 100) int progressPercent) {
-        int angle = IndicatorUtils.calcPercent(FULL_CIRCLE, progressPercent);
-        if (turn == COUNTERCLOCKWISE) {
-            angle = angle * (-1);
-        }
-        Bitmap bitmap = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        Paint paint = new Paint();
-        canvas.drawBitmap(preBitmap, 0, 0, new Paint());
-        final RectF arc = new RectF(source.getWidth() * -0.5f,
-                source.getHeight() * -0.5f,
-                source.getWidth() * 1.5f,
-                source.getHeight() * 1.5f);
-        paint.setShader(shader);
-        canvas.drawArc(arc, 270, angle, true, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_ATOP));
-        canvas.drawBitmap(source, 0, 0, paint);
-        currentBitmap = bitmap;
+    protected FrameRenderer createRenderer() {
+        return new CircularRenderer(turn != COUNTERCLOCKWISE);
     }
 }
@@ -17,8 +17,11 @@ package eu.bakici.imageprogressbar.indicator;
  */
 
 import android.graphics.Bitmap;
+import android.support.annotation.FloatRange;
 import android.support.annotation.IntRange;
 
+import eu.bakici.imageprogressbar.raster.RasterOps;
+
 /**
  * An indicator that is a synchronous indicator at its core, but does now and then gives asynchronous
  * callbacks. This is good, if the progress percents becomes jumpy, meaning there is not linear
@@ -49,6 +52,17 @@ public class HybridIndicator extends ProgressIndicator {
         throw new UnsupportedOperationException("onProgress is not implemented");
     }
 
+    /**
+     * Same as {@link #onProgress(Bitmap, int, OnProgressIndicationUpdatedListener)} with the
+     * progress between two percents. By default the progress is rounded up to whole percents.
+     * @param originalBitmap the original bitmap.
+     * @param progress the current progress, from 0 to 1.
+     * @param listener a callback listener for filling the gaps between progress jumps.
+     */
+    public void onProgressFraction(final Bitmap originalBitmap, @FloatRange(from = 0, to = 1) float progress, final OnProgressIndicationUpdatedListener listener) {
+        onProgress(originalBitmap, RasterOps.toPercent(progress), listener);
+    }
+
     /**
      * Callback interface when the indication has been updated.
      */
@@ -0,0 +1,277 @@
+package eu.bakici.imageprogressbar.indicator;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import eu.bakici.imageprogressbar.raster.CancellationToken;
+import eu.bakici.imageprogressbar.utils.MemoryTrimmer;
+
+/**
+ * Prepares indicators for bitmaps that are about to be shown, e.g. the images a few rows
+ * ahead in a list. The preparation starts when the main thread is idle and runs on a
+ * background thread, one indicator at a time, as long as the prepared indicators fit into
+ * the memory budget. A view adopts a prepared indicator without running its pre progress,
+ * see {@link eu.bakici.imageprogressbar.ProgressImageView#setPreparedImage(Bitmap, ProgressIndicator)}.
+ * <p>
+ * All methods must be called on the main thread. The prepared indicators are dropped when
+ * memory runs low, see {@link MemoryTrimmer}. A dropped indicator only gives back the memory
+ * of its preparation, see {@link ProgressIndicator#releaseRenderMemory()}, it stays usable
+ * and is cleaned up by its owner.
+ */
+public class IndicatorPrefetcher implements MemoryTrimmer.Trimmable {
+
+    private static ExecutorService executor;
+
+    private final long maxBytes;
+
+    /**
+     * The prefetched indicators by bitmap, in the order they have been requested.
+     */
+    private final Map<Bitmap, Entry> entries = new LinkedHashMap<>();
+
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The memory the prepared and the running indicators take.
+     */
+    private long byteCount;
+
+    private Entry running;
+
+    private boolean waitingForIdle;
+
+    private final MessageQueue.IdleHandler startNext = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            waitingForIdle = false;
+            startNext();
+            return false;
+        }
+    };
+
+    /**
+     * @param maxBytes the memory the prepared indicators may take.
+     */
+    public IndicatorPrefetcher(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        MemoryTrimmer.add(this);
+    }
+
+    /**
+     * Queues an indicator to be prepared for the given bitmap. The indicator must not be set
+     * on a view until it is taken with {@link #take(Bitmap)}.
+     */
+    public void prefetch(final Bitmap bitmap, final ProgressIndicator indicator) {
+        final Entry previous = entries.remove(bitmap);
+        if (previous != null) {
+            discard(previous);
+        }
+        entries.put(bitmap, new Entry(bitmap, indicator));
+        scheduleNext();
+    }
+
+    /**
+     * Removes the indicator of the given bitmap from the prefetcher. It is prepared if the
+     * preparation has completed, otherwise the preparation is cancelled and the view
+     * prepares it as usual.
+     *
+     * @return the indicator, {@code null} if none has been queued for the bitmap.
+     */
+    @Nullable
+    public ProgressIndicator take(final Bitmap bitmap) {
+        final Entry entry = entries.remove(bitmap);
+        if (entry == null) {
+            return null;
+        }
+        if (entry == running) {
+            entry.token.cancel();
+        }
+        byteCount -= entry.byteCount;
+        entry.byteCount = 0;
+        scheduleNext();
+        return entry.indicator;
+    }
+
+    /**
+     * Drops the indicator of the given bitmap and the memory it holds.
+     */
+    public void cancel(final Bitmap bitmap) {
+        final Entry entry = entries.remove(bitmap);
+        if (entry != null) {
+            discard(entry);
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Drops all indicators.
+     */
+    public void clear() {
+        for (final Entry entry : entries.values()) {
+            discard(entry);
+        }
+        entries.clear();
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        if (MemoryTrimmer.releasesPrepared(level)) {
+            clear();
+        }
+    }
+
+    /**
+     * @return the memory the prepared indicators take in bytes.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    private void discard(final Entry entry) {
+        entry.token.cancel();
+        byteCount -= entry.byteCount;
+        entry.byteCount = 0;
+        // behind a running preparation, the executor runs one at a time
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                entry.indicator.releaseRenderMemory();
+            }
+        });
+    }
+
+    private void scheduleNext() {
+        if (running == null && !waitingForIdle && hasPending()) {
+            waitingForIdle = true;
+            Looper.myQueue().addIdleHandler(startNext);
+        }
+    }
+
+    private boolean hasPending() {
+        for (final Entry entry : entries.values()) {
+            if (!entry.prepared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startNext() {
+        if (running != null) {
+            return;
+        }
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.prepared) {
+                continue;
+            }
+            final long estimate = entry.indicator.getPreparedByteCount(entry.bitmap);
+            if (byteCount + estimate > maxBytes) {
+                // the next ones are prepared once memory has been freed
+                return;
+            }
+            entry.byteCount = estimate;
+            byteCount += estimate;
+            running = entry;
+            getExecutor().execute(new PrepareRunnable(entry));
+            return;
+        }
+    }
+
+    /**
+     * Called on the main thread once the preparation of the running entry has stopped.
+     */
+    private void onPrepared(final Entry entry) {
+        running = null;
+        if (entries.get(entry.bitmap) == entry) {
+            entry.prepared = entry.indicator.isPreparedFor(entry.bitmap);
+            if (entry.prepared) {
+                // the estimate is replaced by the real size
+                final long actual = entry.indicator.getPreparedByteCount(entry.bitmap);
+                byteCount += actual - entry.byteCount;
+                entry.byteCount = actual;
+            }
+        }
+        scheduleNext();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "prefetch");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private class PrepareRunnable implements Runnable {
+
+        private final Entry mEntry;
+
+        PrepareRunnable(final Entry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public void run() {
+            mEntry.indicator.onPreProgress(mEntry.bitmap, mEntry.token);
+            uiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPrepared(mEntry);
+                }
+            });
+        }
+    }
+
+    private static class Entry {
+
+        final Bitmap bitmap;
+
+        final ProgressIndicator indicator;
+
+        final CancellationToken token = new CancellationToken();
+
+        long byteCount;
+
+        boolean prepared;
+
+        Entry(final Bitmap bitmap, final ProgressIndicator indicator) {
+            this.bitmap = bitmap;
+            this.indicator = indicator;
+        }
+    }
+}
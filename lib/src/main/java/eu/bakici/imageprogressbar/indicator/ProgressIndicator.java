@@ -17,13 +17,27 @@ package eu.bakici.imageprogressbar.indicator;
  */
 
 import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Bundle;
 import android.support.annotation.CallSuper;
+import android.support.annotation.FloatRange;
 import android.support.annotation.IntDef;
 import android.support.annotation.IntRange;
 import android.support.annotation.Nullable;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+import eu.bakici.imageprogressbar.raster.CancellationToken;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.RasterOps;
+import eu.bakici.imageprogressbar.raster.RenderCancelledException;
+import eu.bakici.imageprogressbar.utils.BitmapPool;
+import eu.bakici.imageprogressbar.utils.FrameBitmap;
+import eu.bakici.imageprogressbar.utils.FrameHandoff;
+import eu.bakici.imageprogressbar.utils.IndicatorUtils;
 
 /**
  * Base class for Progress indication.
@@ -64,7 +78,25 @@ public abstract class ProgressIndicator {
     public static final int HYBRID = 3;
 
     /**
-     * The current bitmap the view is displaying.
+     * The number of output bitmaps, the one on screen, the one published last and the one
+     * rendered into.
+     */
+    private static final int OUTPUT_BITMAPS = 3;
+
+    /**
+     * The number of frames whose changed regions are remembered.
+     */
+    private static final int DIRTY_HISTORY = 4;
+
+    /**
+     * The full-size buffers a prepared indicator is estimated to hold: the base frame, the
+     * frame rendered into and the pre bitmap.
+     */
+    private static final int PREPARED_FRAMES = 3;
+
+    /**
+     * The last frame the indicator has rendered. Only the render thread reads and writes it,
+     * the main thread gets the frames through {@link #getCurrentBitmap()}.
      */
     @Nullable
     protected Bitmap currentBitmap;
@@ -80,6 +112,66 @@ public abstract class ProgressIndicator {
      */
     protected Bitmap preBitmap;
 
+    /**
+     * Hands the completed frames to the main thread.
+     */
+    private final FrameHandoff handoff = new FrameHandoff();
+
+    /**
+     * The bitmaps frames are copied into, used in turn. The indicator holds one reference
+     * on each of them.
+     */
+    private final FrameBitmap[] outputBitmaps = new FrameBitmap[OUTPUT_BITMAPS];
+
+    private int nextOutputBitmap;
+
+    /**
+     * The pooled {@link #preBitmap}, if it has been created by {@link #toPreBitmap(IntRaster)}.
+     */
+    private FrameBitmap preFrame;
+
+    /**
+     * The number of frames copied into output bitmaps so far.
+     */
+    private int copiedFrames;
+
+    /**
+     * The frame each output bitmap holds, counted like {@link #copiedFrames}.
+     */
+    private final int[] outputFrameOf = new int[OUTPUT_BITMAPS];
+
+    /**
+     * The regions the last frames changed (left, top, right and bottom), by frame modulo
+     * {@link #DIRTY_HISTORY}.
+     */
+    private final int[][] dirtyHistory = new int[DIRTY_HISTORY][4];
+
+    /**
+     * The token of the running {@link #onPreProgress(Bitmap)} or {@link #onProgress(Bitmap, int)}.
+     */
+    private CancellationToken cancellationToken = CancellationToken.NONE;
+
+    /**
+     * The region the frames copied since the last published frame changed, see
+     * {@link #publishFrame(Bitmap)}.
+     */
+    private final Rect pendingDirty = new Rect();
+
+    /**
+     * Set when the next published frame may differ everywhere from the last one.
+     */
+    private boolean pendingFull = true;
+
+    /**
+     * Whether {@link #preFrame} holds a copy of the rendered frame.
+     */
+    private boolean preFromRaster;
+
+    /**
+     * The original bitmap of the last completed {@link #onPreProgress(Bitmap)}.
+     */
+    private volatile Bitmap preparedFor;
+
     /**
      * Standard constructor. Initializes a ProgressIndicator instance.
      *
@@ -110,21 +202,497 @@ public abstract class ProgressIndicator {
     public abstract void onProgress(Bitmap originalBitmap, @IntRange(from = 0, to = 100) int progressPercent);
 
     /**
-     * The current displayed bitmap.
+     * Called when the progress bar is moving, with the progress between two percents.
+     * Indicators that can show finer steps than whole percents override this, by default
+     * the progress is rounded up and handed to {@link #onProgress(Bitmap, int)}.
+     *
+     * @param originalBitmap the original bitmap
+     * @param progress       the progress, from 0 to 1
+     */
+    public void onProgressFraction(Bitmap originalBitmap, @FloatRange(from = 0, to = 1) float progress) {
+        onProgress(originalBitmap, RasterOps.toPercent(progress));
+    }
+
+    /**
+     * Called instead of {@link #onPreProgress(Bitmap)} when the original bitmap has been
+     * replaced by one of the same size that shows more of the same image, e.g. while it is
+     * streamed. The next progress call renders the frame. By default the indicator is
+     * prepared again, indicators that can keep their state override this.
+     *
+     * @param originalBitmap the new original bitmap.
+     */
+    public void onSourceUpdated(Bitmap originalBitmap) {
+        onPreProgress(originalBitmap);
+    }
+
+    /**
+     * Calls {@link #onPreProgress(Bitmap)} with a token that tells the indicator when the
+     * result is no longer needed. A cancelled call leaves the current bitmap unchanged.
+     *
+     * @param originalBitmap the original bitmap.
+     * @param token          cancelled when the result is no longer needed.
+     */
+    public final synchronized void onPreProgress(final Bitmap originalBitmap, final CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        cancellationToken = token;
+        preparedFor = null;
+        try {
+            onPreProgress(originalBitmap);
+            if (!token.isCancelled()) {
+                publishFrame(currentBitmap);
+                preparedFor = originalBitmap;
+            }
+        } catch (RenderCancelledException e) {
+            // the result is not needed anymore
+        } finally {
+            cancellationToken = CancellationToken.NONE;
+        }
+    }
+
+    /**
+     * Calls {@link #onProgress(Bitmap, int)} with a token that tells the indicator when the
+     * result is no longer needed. A cancelled call leaves the current bitmap unchanged.
+     *
+     * @param originalBitmap  the original bitmap
+     * @param progressPercent the values in percent. Goes from 0 to 100
+     * @param token           cancelled when the result is no longer needed.
+     */
+    public final synchronized void onProgress(final Bitmap originalBitmap,
+                                              @IntRange(from = 0, to = 100) int progressPercent,
+                                              final CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        cancellationToken = token;
+        try {
+            onProgress(originalBitmap, progressPercent);
+            if (!token.isCancelled()) {
+                publishFrame(currentBitmap);
+            }
+        } catch (RenderCancelledException e) {
+            // the result is not needed anymore
+        } finally {
+            cancellationToken = CancellationToken.NONE;
+        }
+    }
+
+    /**
+     * Calls {@link #onProgressFraction(Bitmap, float)} with a token that tells the indicator
+     * when the result is no longer needed. A cancelled call leaves the current bitmap unchanged.
+     *
+     * @param originalBitmap the original bitmap
+     * @param progress       the progress, from 0 to 1
+     * @param token          cancelled when the result is no longer needed.
+     */
+    public final synchronized void onProgressFraction(final Bitmap originalBitmap,
+                                                      @FloatRange(from = 0, to = 1) float progress,
+                                                      final CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        cancellationToken = token;
+        try {
+            onProgressFraction(originalBitmap, progress);
+            if (!token.isCancelled()) {
+                publishFrame(currentBitmap);
+            }
+        } catch (RenderCancelledException e) {
+            // the result is not needed anymore
+        } finally {
+            cancellationToken = CancellationToken.NONE;
+        }
+    }
+
+    /**
+     * Calls {@link #onSourceUpdated(Bitmap)} with a token that tells the indicator when the
+     * result is no longer needed. Nothing is published, a cancelled call leaves the indicator
+     * unprepared.
+     *
+     * @param originalBitmap the new original bitmap.
+     * @param token          cancelled when the result is no longer needed.
+     */
+    public final synchronized void onSourceUpdated(final Bitmap originalBitmap, final CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        cancellationToken = token;
+        preparedFor = null;
+        try {
+            onSourceUpdated(originalBitmap);
+            if (!token.isCancelled()) {
+                preparedFor = originalBitmap;
+            }
+        } catch (RenderCancelledException e) {
+            // the result is not needed anymore
+        } finally {
+            cancellationToken = CancellationToken.NONE;
+            // the output bitmaps hold frames of the previous pixels
+            pendingFull = true;
+            Arrays.fill(outputFrameOf, 0);
+        }
+    }
+
+    /**
+     * An indicator that has been prepared ahead of time, e.g. by an {@link IndicatorPrefetcher},
+     * is adopted by the view without running {@link #onPreProgress(Bitmap)} again.
+     *
+     * @return true if the pre progress for the given bitmap has completed.
+     */
+    public boolean isPreparedFor(@Nullable final Bitmap originalBitmap) {
+        return originalBitmap != null && preparedFor == originalBitmap;
+    }
+
+    /**
+     * The memory the indicator holds once it has been prepared for a bitmap, used to keep
+     * prepared indicators within a budget. By default estimated from the bitmap size.
+     *
+     * @param originalBitmap the original bitmap.
+     * @return the estimated size in bytes.
+     */
+    public long getPreparedByteCount(final Bitmap originalBitmap) {
+        return (long) originalBitmap.getWidth() * originalBitmap.getHeight() * 4 * PREPARED_FRAMES;
+    }
+
+    /**
+     * Creates a renderer that draws the frames of this indicator, e.g. for the cells of a
+     * {@link eu.bakici.imageprogressbar.ProgressImageGridView}. Called on a render thread,
+     * every call returns a new renderer.
+     *
+     * @return the renderer, {@code null} if the indicator does not render with a {@link FrameRenderer}.
+     */
+    @Nullable
+    public FrameRenderer createFrameRenderer() {
+        return null;
+    }
+
+    /**
+     * Writes what the indicator needs to show the same frames again after the view has been
+     * recreated, e.g. a random seed. The frames themselves are rebuilt from the original
+     * image, so the state should only take a few bytes.
+     *
+     * @param state the bundle to write into.
+     */
+    public void onSaveState(final Bundle state) {
+        // most indicators only depend on the progress
+    }
+
+    /**
+     * Reads the state written by {@link #onSaveState(Bundle)}. Called on the main thread
+     * before the indicator is prepared again.
+     *
+     * @param state the bundle to read from.
+     */
+    public void onRestoreState(final Bundle state) {
+        // most indicators only depend on the progress
+    }
+
+    /**
+     * @return the token of the running progress call, {@link CancellationToken#NONE} if the
+     * call has been made without one. Long running indicators should hand it to their kernels.
+     */
+    protected CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * Two progress values with the same key show the same frame, e.g. because they reveal the
+     * same number of blocks. The view skips progress updates whose key has not changed.
+     * Called on the main thread, possibly while the indicator renders on another one.
+     *
+     * @param progressPercent the progress, from 0 to 100.
+     * @return the key of the frame of the given progress, by default the progress itself.
+     */
+    public long getOutputKey(@IntRange(from = 0, to = 100) int progressPercent) {
+        return progressPercent;
+    }
+
+    /**
+     * Same as {@link #getOutputKey(int)} for {@link #onProgressFraction(Bitmap, float)}.
+     *
+     * @param progress the progress, from 0 to 1.
+     * @return the key of the frame of the given progress, by default the one of the rounded up percent.
+     */
+    public long getFractionOutputKey(@FloatRange(from = 0, to = 1) float progress) {
+        return getOutputKey(RasterOps.toPercent(progress));
+    }
+
+    /**
+     * The last completed frame. Can be called from any thread, but the bitmap may be reused
+     * as soon as a newer frame is completed. To show it, use {@link #acquireFrame()}.
      *
      * @return the current bitmap.
      */
     @Nullable
     public Bitmap getCurrentBitmap() {
-        return currentBitmap;
+        final FrameHandoff.Frame frame = handoff.peek();
+        return frame != null ? frame.getContent().getBitmap() : null;
+    }
+
+    /**
+     * Takes a reference on the last completed frame. The frame is not modified, reused or
+     * recycled until the reference is released, which the caller has to do once the frame
+     * is not shown anymore. Must be called on the main thread.
+     *
+     * @return the current frame, {@code null} if there is none.
+     */
+    @Nullable
+    public FrameBitmap acquireFrame() {
+        final FrameHandoff.Frame frame = handoff.acquire();
+        return frame != null ? frame.getContent() : null;
+    }
+
+    /**
+     * Same as {@link #acquireFrame()}, but with the version of the frame and the regions it
+     * changed, see {@link FrameHandoff.Frame#getDirtySince(long, Rect)}.
+     *
+     * @return the current frame, {@code null} if there is none.
+     */
+    @Nullable
+    public FrameHandoff.Frame acquirePublishedFrame() {
+        return handoff.acquire();
+    }
+
+    /**
+     * @return true if the last frame has been rendered at a reduced quality to keep up with
+     * the progress, see {@link #requestRefinement()}.
+     */
+    public boolean needsRefinement() {
+        return false;
+    }
+
+    /**
+     * Lets the next progress call render at full quality. Called by the view once the
+     * progress has settled on a frame that {@link #needsRefinement()}.
+     */
+    public void requestRefinement() {
+        // only indicators that render coarse frames refine them
+    }
+
+    /**
+     * @return the version of the last completed frame, 0 if there is none.
+     */
+    public long getFrameVersion() {
+        final FrameHandoff.Frame frame = handoff.peek();
+        return frame != null ? frame.getVersion() : 0;
+    }
+
+    /**
+     * Hands a completed frame to the main thread. The progress calls of the view do this
+     * with {@link #currentBitmap}, indicators that render on their own threads call it
+     * whenever a frame is complete. The frame must not be modified afterwards.
+     */
+    protected final void publishFrame(@Nullable final Bitmap frame) {
+        currentBitmap = frame;
+        if (frame == null || frame == getCurrentBitmap()) {
+            return;
+        }
+        for (int i = 0; i < OUTPUT_BITMAPS; i++) {
+            final FrameBitmap output = outputBitmaps[i];
+            if (output != null && output.getBitmap() == frame) {
+                publish(output, outputFrameOf[i] > 0);
+                return;
+            }
+        }
+        if (preFrame != null && preFrame.getBitmap() == frame) {
+            publish(preFrame, preFromRaster);
+            return;
+        }
+        // not one of ours, the garbage collector takes care of it
+        final FrameBitmap foreign = FrameBitmap.wrap(frame);
+        publish(foreign, false);
+        foreign.release();
+    }
+
+    /**
+     * Publishes a frame with the region it changed since the last published frame. Only
+     * frames copied from the rendered frame have a known region.
+     *
+     * @param fromRaster true if the frame has been copied by {@link #toOutputBitmap(IntRaster)}.
+     */
+    private void publish(final FrameBitmap frame, final boolean fromRaster) {
+        if (!fromRaster || pendingFull) {
+            handoff.publish(frame);
+        } else {
+            handoff.publish(frame, pendingDirty.left, pendingDirty.top, pendingDirty.right, pendingDirty.bottom);
+        }
+        pendingDirty.set(0, 0, 0, 0);
+        // the rendered frame does not know what has been shown instead of it
+        pendingFull = !fromRaster;
+    }
+
+    /**
+     * Copies the frame that is shown before the progress starts into a pooled bitmap. The
+     * bitmap goes back to the pool once the next one is created, the indicator is cleaned
+     * up and nobody shows it anymore.
+     *
+     * @return the bitmap to use as {@link #preBitmap}.
+     */
+    protected Bitmap toPreBitmap(final IntRaster frame) {
+        final Bitmap bitmap = obtainPreBitmap(frame.getWidth(), frame.getHeight());
+        IndicatorUtils.copyToBitmap(frame, bitmap);
+        preFromRaster = true;
+        pendingFull = true;
+        // the regions of the next frame are relative to this one, not to the output bitmaps
+        Arrays.fill(outputFrameOf, 0);
+        return bitmap;
+    }
+
+    /**
+     * Same as {@link #toPreBitmap(IntRaster)}, but leaves writing the pixels to the caller.
+     *
+     * @return the bitmap to use as {@link #preBitmap}, its content is undefined.
+     */
+    protected Bitmap obtainPreBitmap(final int width, final int height) {
+        if (preFrame != null) {
+            preFrame.release();
+        }
+        preFrame = FrameBitmap.obtain(BitmapPool.getInstance(), width, height);
+        preFromRaster = false;
+        return preFrame.getBitmap();
     }
 
     /**
-     * Should be called when the indication is done.
+     * Copies a rendered frame into an output bitmap. The output bitmaps are taken from the
+     * {@link BitmapPool} with the first frames and reused afterwards, so that the progress
+     * does not allocate a full-size bitmap per frame. The returned bitmap is never one the
+     * main thread may still read, see {@link #acquireFrame()}.
+     *
+     * @param frame the rendered frame.
+     * @return the bitmap holding the frame.
+     */
+    protected Bitmap toOutputBitmap(final IntRaster frame) {
+        return toOutputBitmap(frame, 0, 0, frame.getWidth(), frame.getHeight());
+    }
+
+    /**
+     * Same as {@link #toOutputBitmap(IntRaster)} for a frame that only differs from the previous
+     * frame within the given region. Only the regions changed since the frame the reused
+     * bitmap holds are copied.
+     *
+     * @param frame the rendered frame.
+     * @return the bitmap holding the frame.
+     */
+    protected Bitmap toOutputBitmap(final IntRaster frame,
+                                    final int left, final int top, final int right, final int bottom) {
+        final int frameNumber = ++copiedFrames;
+        final int[] dirty = dirtyHistory[frameNumber % DIRTY_HISTORY];
+        dirty[0] = left;
+        dirty[1] = top;
+        dirty[2] = right;
+        dirty[3] = bottom;
+        if (left < right && top < bottom) {
+            if (pendingDirty.isEmpty()) {
+                pendingDirty.set(left, top, right, bottom);
+            } else {
+                pendingDirty.union(left, top, right, bottom);
+            }
+        }
+
+        final int slot = nextFreeOutputBitmap(frame.getWidth(), frame.getHeight());
+        final boolean reused = outputFrameOf[slot] > 0;
+        final Bitmap output = outputBitmaps[slot].getBitmap();
+        if (reused && frameNumber - outputFrameOf[slot] <= DIRTY_HISTORY) {
+            for (int i = outputFrameOf[slot] + 1; i <= frameNumber; i++) {
+                final int[] changed = dirtyHistory[i % DIRTY_HISTORY];
+                IndicatorUtils.copyToBitmap(frame, output, changed[0], changed[1], changed[2], changed[3]);
+            }
+        } else {
+            IndicatorUtils.copyToBitmap(frame, output);
+        }
+        outputFrameOf[slot] = frameNumber;
+        return output;
+    }
+
+    /**
+     * Returns an output bitmap of the given size the main thread does not read. Its content
+     * is undefined, use {@link #toOutputBitmap(IntRaster)} unless the pixels are written
+     * completely by other means.
+     */
+    protected Bitmap obtainOutputBitmap(final int width, final int height) {
+        final int slot = nextFreeOutputBitmap(width, height);
+        // the content is not known anymore
+        outputFrameOf[slot] = 0;
+        return outputBitmaps[slot].getBitmap();
+    }
+
+    /**
+     * @return the index of the next output bitmap nobody else holds a reference on, with a
+     * bitmap of the given size.
+     */
+    private int nextFreeOutputBitmap(final int width, final int height) {
+        int slot = nextOutputBitmap;
+        for (int i = 0; i < OUTPUT_BITMAPS; i++) {
+            final int candidate = (nextOutputBitmap + i) % OUTPUT_BITMAPS;
+            final FrameBitmap output = outputBitmaps[candidate];
+            if (output == null || !output.isShared()) {
+                slot = candidate;
+                break;
+            }
+        }
+        nextOutputBitmap = (slot + 1) % OUTPUT_BITMAPS;
+        final FrameBitmap output = outputBitmaps[slot];
+        if (output == null || output.isShared()
+                || output.getBitmap().getWidth() != width || output.getBitmap().getHeight() != height) {
+            // all of them are shown somewhere or the size changed, the old one is
+            // pooled once nobody shows it anymore
+            if (output != null) {
+                output.release();
+            }
+            outputBitmaps[slot] = FrameBitmap.obtain(BitmapPool.getInstance(), width, height);
+            outputFrameOf[slot] = 0;
+        }
+        return slot;
+    }
+
+    /**
+     * Should be called when the indication is done. Must not run at the same time as a
+     * progress call: cancel them first and call it where they run, the view and the
+     * {@link eu.bakici.imageprogressbar.ProgressSource} queue it on their render executor
+     * behind the cancelled renders, so that the main thread does not wait for them.
      */
     @CallSuper
     public void cleanUp() {
+        preparedFor = null;
+        pendingFull = true;
         currentBitmap = null;
+        handoff.clear();
+        releaseOutputBitmaps();
+        if (preFrame != null) {
+            preFrame.release();
+            preFrame = null;
+        }
+        preBitmap = null;
+    }
+
+    /**
+     * Gives back the memory of the prepared state and of the rendered frames, e.g. while the
+     * view is hidden. Unlike {@link #cleanUp()} the indicator stays usable: its threads keep
+     * running, the frame shown before the progress stays published and the next
+     * {@link #onPreProgress(Bitmap)} prepares it again. Waits for a running progress call, so
+     * it is called on a render thread after cancelling them.
+     */
+    @CallSuper
+    public synchronized void releaseRenderMemory() {
+        preparedFor = null;
+        pendingFull = true;
+        handoff.clear();
+        releaseOutputBitmaps();
+        currentBitmap = null;
+        if (preBitmap != null) {
+            publishFrame(preBitmap);
+        }
+    }
+
+    private void releaseOutputBitmaps() {
+        for (final FrameBitmap output : outputBitmaps) {
+            if (output != null) {
+                output.release();
+            }
+        }
+        Arrays.fill(outputBitmaps, null);
+        Arrays.fill(outputFrameOf, 0);
     }
 
     /**
@@ -0,0 +1,82 @@
+package eu.bakici.imageprogressbar.indicator;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Picks the resolution an indicator renders at from the time its last frames took. When a
+ * frame at full resolution would take longer than the budget, frames are rendered at half
+ * or a quarter of the resolution and scaled up, so that a fast progress still shows frames
+ * without delay. The render cost is assumed to grow with the number of pixels.
+ * <p>
+ * Called on the render thread, {@link #getScale()} may be read from any thread.
+ */
+public final class QualityController {
+
+    /**
+     * The coarsest scale, a quarter of the resolution.
+     */
+    public static final int MAX_SCALE = 4;
+
+    private final long budgetNanos;
+
+    /**
+     * The smoothed cost of a frame at full resolution, 0 until the first frame is measured.
+     */
+    private long fullCostNanos;
+
+    private volatile int scale = 1;
+
+    /**
+     * @param budgetNanos the time one frame may take.
+     */
+    public QualityController(final long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * @return the factor the resolution of the next frame is divided by, 1, 2 or
+     * {@link #MAX_SCALE}.
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Records the time a frame took.
+     *
+     * @param renderedScale the scale the frame has been rendered at.
+     * @param nanos         the time it took.
+     */
+    public void onRendered(final int renderedScale, final long nanos) {
+        final long fullCost = nanos * renderedScale * renderedScale;
+        // smoothed, a single slow frame, e.g. because of a garbage collection, does not count much
+        fullCostNanos = fullCostNanos == 0 ? fullCost : (fullCostNanos + fullCost) / 2;
+        int next = 1;
+        while (next < MAX_SCALE && fullCostNanos / ((long) next * next) > budgetNanos) {
+            next *= 2;
+        }
+        scale = next;
+    }
+
+    /**
+     * Forgets the measured frames, e.g. for a new image.
+     */
+    public void reset() {
+        fullCostNanos = 0;
+        scale = 1;
+    }
+}
@@ -17,15 +17,18 @@ package eu.bakici.imageprogressbar.indicator;
  */
 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 
-import java.util.Collections;
+import java.util.Random;
 
+import eu.bakici.imageprogressbar.raster.BlockRenderer;
+import eu.bakici.imageprogressbar.raster.CancellationToken;
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.Raster;
 import eu.bakici.imageprogressbar.utils.IndicatorUtils;
 
 
@@ -34,9 +37,11 @@ import eu.bakici.imageprogressbar.utils.IndicatorUtils;
  */
 public class RandomBlockIndicator extends BlockIndicator {
 
-    private int currProgressPercent = 0;
+    private static final String STATE_SEED = "seed";
 
-    private int currBlockPosOfPercent = 0;
+    private static final String STATE_REVEALED = "revealed";
+
+    private static final Random SEEDS = new Random();
 
     private Handler uIHandler;
 
@@ -44,6 +49,32 @@ public class RandomBlockIndicator extends BlockIndicator {
 
     private Handler blockUpdatedHandler;
 
+    /**
+     * The black and white image with all blocks revealed so far.
+     */
+    private IntRaster frame;
+
+    /**
+     * Cancelled with every progress update, a running catch up stops when its token is cancelled.
+     * Replaced on the main thread, cancelled on the render threads as well.
+     */
+    private volatile CancellationToken catchUp = CancellationToken.NONE;
+
+    private final int[] bounds = new int[4];
+
+    /**
+     * The seed the blocks of the current image have been shuffled with.
+     */
+    private volatile long seed;
+
+    /**
+     * Set when the seed and the revealed blocks have been restored and should be used for
+     * the next image instead of a new order.
+     */
+    private volatile boolean restored;
+
+    private volatile int restoredRevealed;
+
 
     public RandomBlockIndicator() {
         this(BLOCK_SIZE_MEDIUM);
@@ -58,147 +89,169 @@ public class RandomBlockIndicator extends BlockIndicator {
     }
 
     @Override
-    protected void onPostBlockInitialization() {
-        Collections.shuffle(blocks);
+    public void onPreProgress(final Bitmap originalBitmap) {
+        final boolean restoring = restored;
+        super.onPreProgress(originalBitmap);
+        if (restoring && restoredRevealed > 0) {
+            // starts where it was, instead of catching up from the first block
+            renderer.reveal(Math.min(restoredRevealed, blockSum), frame);
+            currentBitmap = toOutputBitmap(frame);
+        }
+        restored = false;
     }
 
+    /**
+     * Keeps the order of the blocks, the revealed ones are copied again from the new pixels.
+     */
     @Override
-    public void onProgress(final Bitmap originalBitmap, final int progressPercent, final OnProgressIndicationUpdatedListener callback) {
-
-        final int height = this.height;
-        final int width = this.width;
-        final Bitmap output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        final Canvas canvas = new Canvas(output);
-
-        int blockPosOfPercent = IndicatorUtils.calcPercent(blockSum, progressPercent) + 1;
-
-        if (blockPosOfPercent - currBlockPosOfPercent > 1) {
-            // we need to cover all block positions
-            // when blockSum is big, we might skip some positions,
-            // therefore we are catching up.
-            int diffPercent = blockPosOfPercent - currBlockPosOfPercent;
-            blockUpdatedHandler.post(new CatchUpBlocksRunnable(diffPercent, originalBitmap, output, canvas, currBlockPosOfPercent, callback));
-            currBlockPosOfPercent = blockPosOfPercent;
-            return;
-        }
-
-        currBlockPosOfPercent = blockPosOfPercent;
-
-        if (currProgressPercent < progressPercent - 1) {
-            // we have a rather large progressbar jump
-            final int diffPercent = progressPercent - currProgressPercent;
-            uIHandler.post(new ProgressJumpRunnable(diffPercent, originalBitmap, output, canvas, currProgressPercent, callback));
-            currProgressPercent = progressPercent;
+    public void onSourceUpdated(final Bitmap originalBitmap) {
+        final BlockRenderer current = renderer;
+        if (current == null || frame == null || width != originalBitmap.getWidth()
+                || height != originalBitmap.getHeight()) {
+            onPreProgress(originalBitmap);
             return;
         }
-        currProgressPercent = progressPercent;
-
-        addColorBlockToBitmap(originalBitmap, canvas, blockPosOfPercent - 1);
-        preBitmap.recycle();
-        preBitmap = output;
-        callback.onProgressIndicationUpdated(output);
+        final int revealed = current.getRevealed();
+        current.prepare(IndicatorUtils.asRaster(originalBitmap));
+        current.shuffle(new Random(seed));
+        current.reveal(revealed, frame);
+        currentBitmap = toOutputBitmap(frame);
     }
 
-    private void addColorBlockToBitmap(final Bitmap originalBitmap, final Canvas canvas, final int blockPos) {
-        if (blockPos >= blocks.size()) {
-            return;
-        }
-        final Rect randomBlock = blocks.get(blockPos);
-        final Paint paint = new Paint();
-        canvas.drawBitmap(preBitmap, 0, 0, paint);
-        canvas.drawBitmap(originalBitmap, randomBlock, randomBlock, paint);
-    }
     @Override
-    public void cleanUp() {
-        super.cleanUp();
-        if (handlerThread.isAlive()) {
-            handlerThread.quit();
+    protected void onPostBlockInitialization() {
+        catchUp.cancel();
+        if (!restored) {
+            seed = SEEDS.nextLong();
         }
+        renderer.shuffle(new Random(seed));
+        frame = new IntRaster(width, height);
+        renderer.renderBase(frame);
     }
 
-    private class ProgressJumpRunnable implements Runnable {
-
-        private final int mDiff;
+    /**
+     * Every renderer reveals its blocks in its own random order.
+     */
+    @Override
+    public FrameRenderer createFrameRenderer() {
+        final long order = SEEDS.nextLong();
+        return new BlockRenderer(pixels) {
+            @Override
+            public void prepare(final Raster source) {
+                super.prepare(source);
+                shuffle(new Random(order));
+            }
+        };
+    }
 
-        private final Canvas mCanvas;
+    @Override
+    public void onSaveState(final Bundle state) {
+        state.putLong(STATE_SEED, seed);
+        // the order follows from the seed, the count is enough to rebuild the revealed blocks
+        final BlockRenderer current = renderer;
+        state.putInt(STATE_REVEALED, current != null ? current.getRevealed() : 0);
+    }
 
-        private final Bitmap mBitmap;
+    @Override
+    public void onRestoreState(final Bundle state) {
+        seed = state.getLong(STATE_SEED, seed);
+        restoredRevealed = state.getInt(STATE_REVEALED, 0);
+        restored = true;
+    }
 
-        private final Bitmap mOutput;
+    @Override
+    public void onProgress(final Bitmap originalBitmap, final int progressPercent, final OnProgressIndicationUpdatedListener callback) {
+        onProgressFraction(originalBitmap, progressPercent / 100f, callback);
+    }
 
-        private final int mCurr;
+    @Override
+    public void onProgressFraction(final Bitmap originalBitmap, final float progress, final OnProgressIndicationUpdatedListener callback) {
+        catchUp.cancel();
+        final CancellationToken token = new CancellationToken();
+        catchUp = token;
+        // the blocks are revealed on the worker thread, the main thread only
+        // shows the published frames.
+        blockUpdatedHandler.post(new CatchUpBlocksRunnable(token, progress, callback));
+    }
 
-        private final OnProgressIndicationUpdatedListener mListener;
+    /**
+     * Keeps the worker thread, the next image reveals its blocks on it.
+     */
+    @Override
+    public synchronized void releaseRenderMemory() {
+        catchUp.cancel();
+        super.releaseRenderMemory();
+        frame = null;
+    }
 
-        ProgressJumpRunnable(int diff, Bitmap source, Bitmap output, Canvas canvas, int curr, OnProgressIndicationUpdatedListener listener) {
-            mDiff = diff;
-            mBitmap = source;
-            mOutput = output;
-            mCanvas = canvas;
-            mCurr = curr;
-            mListener = listener;
+    @Override
+    public void cleanUp() {
+        catchUp.cancel();
+        synchronized (this) {
+            super.cleanUp();
         }
-
-        @Override
-        public void run() {
-            synchronized (RandomBlockIndicator.this) {
-                for (int i = 1; i <= mDiff; i++) {
-                    final int missingProgressPercent = mCurr + i;
-                    int percent = IndicatorUtils.calcPercent(blockSum, missingProgressPercent);
-                    addColorBlockToBitmap(mBitmap, mCanvas, percent - 1);
-                    preBitmap = mOutput;
-                    uIHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mListener.onProgressIndicationUpdated(mOutput);
-                        }
-                    });
-
-                }
-            }
+        if (handlerThread.isAlive()) {
+            handlerThread.quit();
         }
     }
 
+    /**
+     * @return the looper the blocks are revealed on, tests run its messages.
+     */
+    Looper getCatchUpLooper() {
+        return handlerThread.getLooper();
+    }
 
+    /**
+     * Reveals the blocks one by one until the progress is reached and publishes a frame
+     * after every block. When the progress jumps, the skipped blocks still show up in order.
+     */
     private class CatchUpBlocksRunnable implements Runnable {
 
-        private final int mDiff;
+        private final CancellationToken mToken;
 
-        private final Canvas mCanvas;
-
-        private final Bitmap mBitmap;
-
-        private final Bitmap mOutput;
-
-        private final int mCurr;
+        private final float mProgress;
 
         private final OnProgressIndicationUpdatedListener mListener;
 
-        CatchUpBlocksRunnable(int diff, Bitmap source, Bitmap output, Canvas canvas, int curr, OnProgressIndicationUpdatedListener listener) {
-            mDiff = diff;
-            mBitmap = source;
-            mOutput = output;
-            mCanvas = canvas;
-            mCurr = curr;
+        private final Runnable mShowFrame = new Runnable() {
+            @Override
+            public void run() {
+                if (!mToken.isCancelled()) {
+                    mListener.onProgressIndicationUpdated(getCurrentBitmap());
+                }
+            }
+        };
+
+        CatchUpBlocksRunnable(CancellationToken token, float progress, OnProgressIndicationUpdatedListener listener) {
+            mToken = token;
+            mProgress = progress;
             mListener = listener;
         }
 
         @Override
         public void run() {
-            synchronized (RandomBlockIndicator.this) {
-                for (int i = 1; i <= mDiff; i++) {
-                    final int missingProgressPercent = mCurr + i;
-                    addColorBlockToBitmap(mBitmap, mCanvas, missingProgressPercent - 1);
-
-                    preBitmap = mOutput;
-                    uIHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mListener.onProgressIndicationUpdated(mOutput);
-                        }
-                    });
-
+            while (true) {
+                synchronized (RandomBlockIndicator.this) {
+                    if (mToken.isCancelled() || renderer == null) {
+                        return;
+                    }
+                    final int blockCount = renderer.getBlockCount(mProgress);
+                    final int revealed = renderer.getRevealed();
+                    if (blockCount == revealed) {
+                        return;
+                    }
+                    if (blockCount < revealed) {
+                        // the progress went back, the frame is rebuilt
+                        renderer.reveal(blockCount, frame);
+                        publishFrame(toOutputBitmap(frame));
+                    } else {
+                        renderer.reveal(revealed + 1, frame);
+                        renderer.getBlock(revealed, bounds);
+                        publishFrame(toOutputBitmap(frame, bounds[0], bounds[1], bounds[2], bounds[3]));
+                    }
                 }
+                uIHandler.post(mShowFrame);
             }
         }
     }
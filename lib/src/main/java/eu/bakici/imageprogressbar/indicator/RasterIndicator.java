@@ -0,0 +1,489 @@
+package eu.bakici.imageprogressbar.indicator;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.annotation.FloatRange;
+import android.support.annotation.IntRange;
+import android.support.annotation.Nullable;
+
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.utils.BitmapPool;
+import eu.bakici.imageprogressbar.utils.DiskFrameCache;
+import eu.bakici.imageprogressbar.utils.FrameBitmap;
+import eu.bakici.imageprogressbar.utils.IndicatorUtils;
+import eu.bakici.imageprogressbar.utils.RenderPolicy;
+
+/**
+ * An indicator whose frames are rendered by a {@link FrameRenderer}. The renderer does
+ * the pixel work, this class only moves the frames into bitmaps.
+ */
+public abstract class RasterIndicator extends ProgressIndicator {
+
+    /**
+     * The time an asynchronous frame may take before the indicator renders coarser frames,
+     * see {@link #setFrameBudget(long)}.
+     */
+    public static final long DEFAULT_FRAME_BUDGET_MS = 32;
+
+    /**
+     * Volatile for {@link #getOutputKey(int)}, which is called on the main thread.
+     */
+    private volatile FrameRenderer renderer;
+
+    /**
+     * Reused for every frame.
+     */
+    private IntRaster frame;
+
+    /**
+     * The region the last render changed, see {@link FrameRenderer#getDirtyBounds(int[])}.
+     */
+    private final int[] dirty = new int[4];
+
+    /**
+     * Optional disk tier for the frames, see {@link #setFrameCache(DiskFrameCache)}.
+     */
+    private DiskFrameCache frameCache;
+
+    /**
+     * The original bitmap {@link #contentHash} belongs to, hashed while the indicator is
+     * prepared, see {@link #hashOriginal(Bitmap)}.
+     */
+    private Bitmap hashedBitmap;
+
+    private long contentHash;
+
+    private volatile QualityController quality = new QualityController(DEFAULT_FRAME_BUDGET_MS * 1000000L);
+
+    /**
+     * Set when the last frame has been rendered at a reduced resolution.
+     */
+    private volatile boolean coarse;
+
+    private volatile boolean refineRequested;
+
+    /**
+     * The coarsest scale the {@link RenderPolicy} allowed for the last frame, frames at that
+     * scale are not refined.
+     */
+    private volatile int minScale = 1;
+
+    /**
+     * Renders the frames at {@link #coarseScale}, prepared on {@link #scaledOriginal}.
+     */
+    private FrameRenderer coarseRenderer;
+
+    private int coarseScale;
+
+    private IntRaster coarseFrame;
+
+    private Bitmap scaledOriginal;
+
+    /**
+     * Holds a coarse frame before it is scaled up into an output bitmap.
+     */
+    private FrameBitmap coarseBitmap;
+
+    private final Canvas scaleCanvas = new Canvas();
+
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final Rect scaleBounds = new Rect();
+
+    public RasterIndicator(@IndicationProcessingType int indicationProcess) {
+        super(indicationProcess);
+    }
+
+    /**
+     * Creates the renderer for a new original bitmap.
+     */
+    protected abstract FrameRenderer createRenderer();
+
+    @Override
+    public FrameRenderer createFrameRenderer() {
+        return createRenderer();
+    }
+
+    /**
+     * Identifies the indicator and its parameters in the {@link DiskFrameCache}. Only
+     * indicators whose frames are more expensive to render than to read from disk should
+     * return one.
+     *
+     * @return the key, {@code null} if the frames are not cached.
+     */
+    @Nullable
+    protected String getFrameCacheKey() {
+        return null;
+    }
+
+    /**
+     * Sets a disk tier the frames are read from and stored into, so that they are not
+     * rendered again when the same image shows up later. Has no effect if the indicator
+     * does not have a {@link #getFrameCacheKey()} or is {@link #SYNC}, whose frames are
+     * rendered on the main thread where the disk is not read.
+     *
+     * @param cache the cache, {@code null} to render every frame.
+     */
+    public synchronized void setFrameCache(@Nullable final DiskFrameCache cache) {
+        frameCache = cache;
+    }
+
+    /**
+     * Sets the time an asynchronous frame may take. When frames at full resolution take
+     * longer, they are rendered at half or a quarter of the resolution and refined once the
+     * progress settles.
+     *
+     * @param millis the budget, 0 to always render at full resolution.
+     */
+    public void setFrameBudget(final long millis) {
+        quality = millis > 0 ? new QualityController(millis * 1000000L) : null;
+    }
+
+    @Override
+    public void onPreProgress(final Bitmap originalBitmap) {
+        releaseRenderer();
+        resetQuality();
+        // only published once it is prepared
+        final FrameRenderer prepared = createRenderer();
+        prepared.prepare(IndicatorUtils.asRaster(originalBitmap));
+        renderer = prepared;
+        frame = new IntRaster(originalBitmap.getWidth(), originalBitmap.getHeight());
+        hashOriginal(originalBitmap);
+        // never taken from the cache, the renderer continues from the base frame
+        renderer.renderBase(frame);
+        preBitmap = toPreBitmap(frame);
+        currentBitmap = preBitmap;
+    }
+
+    /**
+     * Prepares the renderer for the new pixels and keeps the frame and the measured render
+     * times, the size has not changed.
+     */
+    @Override
+    public void onSourceUpdated(final Bitmap originalBitmap) {
+        final FrameRenderer current = renderer;
+        if (current == null || frame.getWidth() != originalBitmap.getWidth()
+                || frame.getHeight() != originalBitmap.getHeight()) {
+            onPreProgress(originalBitmap);
+            return;
+        }
+        // the coarse renderer works on a scaled copy of the previous pixels
+        releaseCoarseRenderer();
+        current.prepare(IndicatorUtils.asRaster(originalBitmap));
+        current.renderBase(frame);
+        hashOriginal(originalBitmap);
+    }
+
+    @Override
+    public void onProgress(final Bitmap originalBitmap, @IntRange(from = 0, to = 100) int progressPercent) {
+        final String key = getFrameKey(originalBitmap, renderer.getOutputKey(progressPercent));
+        if (loadFrame(key, originalBitmap)) {
+            return;
+        }
+        final int scale = nextQualityScale();
+        final long start = System.nanoTime();
+        if (scale > 1) {
+            getCoarseRenderer(originalBitmap, scale).render(progressPercent, coarseFrame, getCancellationToken());
+            currentBitmap = toCoarseOutputBitmap(originalBitmap);
+            onQualityRendered(scale, System.nanoTime() - start);
+            return;
+        }
+        renderer.render(progressPercent, frame, getCancellationToken());
+        renderer.getDirtyBounds(dirty);
+        currentBitmap = toOutputBitmap(frame, dirty[0], dirty[1], dirty[2], dirty[3]);
+        onQualityRendered(1, System.nanoTime() - start);
+        storeFrame(key);
+    }
+
+    @Override
+    public void onProgressFraction(final Bitmap originalBitmap, @FloatRange(from = 0, to = 1) float progress) {
+        final String key = getFrameKey(originalBitmap, renderer.getFractionOutputKey(progress));
+        if (loadFrame(key, originalBitmap)) {
+            return;
+        }
+        final int scale = nextQualityScale();
+        final long start = System.nanoTime();
+        if (scale > 1) {
+            getCoarseRenderer(originalBitmap, scale).renderFraction(progress, coarseFrame, getCancellationToken());
+            currentBitmap = toCoarseOutputBitmap(originalBitmap);
+            onQualityRendered(scale, System.nanoTime() - start);
+            return;
+        }
+        renderer.renderFraction(progress, frame, getCancellationToken());
+        renderer.getDirtyBounds(dirty);
+        currentBitmap = toOutputBitmap(frame, dirty[0], dirty[1], dirty[2], dirty[3]);
+        onQualityRendered(1, System.nanoTime() - start);
+        storeFrame(key);
+    }
+
+    /**
+     * Creates the renderer for the original bitmap scaled down by the given factor. By
+     * default the same as {@link #createRenderer()}, renderers whose parameters are in pixels
+     * scale them here.
+     */
+    protected FrameRenderer createCoarseRenderer(final int scale) {
+        return createRenderer();
+    }
+
+    /**
+     * @return the factor the resolution of the next frame is divided by, 1 for full resolution.
+     * Only asynchronous indicators render coarser frames, at least at the scale of the
+     * {@link RenderPolicy}.
+     */
+    protected int nextQualityScale() {
+        if (getIndicationProcessingType() != ASYNC) {
+            minScale = 1;
+            return 1;
+        }
+        minScale = RenderPolicy.getCurrentMinScale();
+        final QualityController controller = quality;
+        if (refineRequested || controller == null) {
+            refineRequested = false;
+            return minScale;
+        }
+        return Math.max(minScale, controller.getScale());
+    }
+
+    /**
+     * Records the time a frame took, see {@link #nextQualityScale()}.
+     */
+    protected void onQualityRendered(final int scale, final long nanos) {
+        coarse = scale > minScale;
+        final QualityController controller = quality;
+        if (controller != null) {
+            controller.onRendered(scale, nanos);
+        }
+    }
+
+    @Override
+    public boolean needsRefinement() {
+        return coarse;
+    }
+
+    @Override
+    public void requestRefinement() {
+        refineRequested = true;
+    }
+
+    /**
+     * @return a copy of the original bitmap scaled down by the given factor, kept as long
+     * as the factor does not change.
+     */
+    protected Bitmap getScaledOriginal(final Bitmap originalBitmap, final int scale) {
+        final int width = Math.max(1, originalBitmap.getWidth() / scale);
+        final int height = Math.max(1, originalBitmap.getHeight() / scale);
+        if (scaledOriginal == null || scaledOriginal.getWidth() != width || scaledOriginal.getHeight() != height) {
+            scaledOriginal = Bitmap.createScaledBitmap(originalBitmap, width, height, true);
+        }
+        return scaledOriginal;
+    }
+
+    /**
+     * @return a pooled bitmap for a coarse frame, reused while the size does not change.
+     */
+    protected Bitmap obtainCoarseBitmap(final int width, final int height) {
+        if (coarseBitmap == null || coarseBitmap.getBitmap().getWidth() != width
+                || coarseBitmap.getBitmap().getHeight() != height) {
+            if (coarseBitmap != null) {
+                coarseBitmap.release();
+            }
+            coarseBitmap = FrameBitmap.obtain(BitmapPool.getInstance(), width, height);
+        }
+        return coarseBitmap.getBitmap();
+    }
+
+    /**
+     * Scales a coarse frame up into an output bitmap of the size of the original.
+     *
+     * @return the output bitmap.
+     */
+    protected Bitmap toScaledOutputBitmap(final Bitmap coarseFrame, final Bitmap originalBitmap) {
+        final Bitmap output = obtainOutputBitmap(originalBitmap.getWidth(), originalBitmap.getHeight());
+        scaleBounds.set(0, 0, output.getWidth(), output.getHeight());
+        scaleCanvas.setBitmap(output);
+        scaleCanvas.drawBitmap(coarseFrame, null, scaleBounds, scalePaint);
+        scaleCanvas.setBitmap(null);
+        return output;
+    }
+
+    /**
+     * Drops the coarse frames and the measured render times, called for a new original bitmap.
+     */
+    protected void resetQuality() {
+        releaseCoarseRenderer();
+        final QualityController controller = quality;
+        if (controller != null) {
+            controller.reset();
+        }
+    }
+
+    private FrameRenderer getCoarseRenderer(final Bitmap originalBitmap, final int scale) {
+        if (coarseRenderer == null || coarseScale != scale) {
+            releaseCoarseRenderer();
+            final Bitmap scaled = getScaledOriginal(originalBitmap, scale);
+            final FrameRenderer prepared = createCoarseRenderer(scale);
+            prepared.prepare(IndicatorUtils.asRaster(scaled));
+            coarseFrame = new IntRaster(scaled.getWidth(), scaled.getHeight());
+            coarseRenderer = prepared;
+            coarseScale = scale;
+        }
+        return coarseRenderer;
+    }
+
+    private Bitmap toCoarseOutputBitmap(final Bitmap originalBitmap) {
+        final Bitmap bitmap = obtainCoarseBitmap(coarseFrame.getWidth(), coarseFrame.getHeight());
+        IndicatorUtils.copyToBitmap(coarseFrame, bitmap);
+        return toScaledOutputBitmap(bitmap, originalBitmap);
+    }
+
+    /**
+     * Same as {@link #getFrameKey(Bitmap, String)} for the frame with the given output key.
+     */
+    @Nullable
+    protected String getFrameKey(final Bitmap originalBitmap, final long outputKey) {
+        if (!usesFrameCache() || hashedBitmap != originalBitmap) {
+            // nothing to allocate while the frames are not cached
+            return null;
+        }
+        return getFrameKey(originalBitmap, Long.toString(outputKey));
+    }
+
+    /**
+     * @return the key of a frame of the given original in the {@link DiskFrameCache},
+     * {@code null} if the frames are not cached or the original has not been hashed.
+     */
+    @Nullable
+    protected String getFrameKey(final Bitmap originalBitmap, final String frameKey) {
+        final String indicatorKey = getFrameCacheKey();
+        if (!usesFrameCache() || indicatorKey == null || hashedBitmap != originalBitmap) {
+            return null;
+        }
+        return DiskFrameCache.createKey(contentHash, indicatorKey, frameKey);
+    }
+
+    /**
+     * Hashes the pixels of the original for the keys of its frames. A full pass over the
+     * pixels, so it is done once while the indicator is prepared, which always happens on a
+     * background thread. Subclasses that prepare without {@link #onPreProgress(Bitmap)} call it.
+     */
+    protected void hashOriginal(final Bitmap originalBitmap) {
+        if (!usesFrameCache() || getFrameCacheKey() == null) {
+            hashedBitmap = null;
+            return;
+        }
+        if (hashedBitmap != originalBitmap) {
+            contentHash = DiskFrameCache.contentHash(originalBitmap);
+            hashedBitmap = originalBitmap;
+        }
+    }
+
+    /**
+     * @return true if the frames are read from and stored into the disk cache, only on the
+     * render threads of the {@link #ASYNC} indicators.
+     */
+    private boolean usesFrameCache() {
+        return frameCache != null && getIndicationProcessingType() == ASYNC;
+    }
+
+    /**
+     * Reads a cached frame into an output bitmap and makes it the current bitmap.
+     *
+     * @param key the key of the frame, may be {@code null}.
+     * @return true if the frame has been cached.
+     */
+    protected boolean loadFrame(@Nullable final String key, final Bitmap originalBitmap) {
+        if (key == null || !frameCache.contains(key)) {
+            // a miss must not take an output bitmap, the next frame would be copied completely
+            return false;
+        }
+        final Bitmap output = obtainOutputBitmap(originalBitmap.getWidth(), originalBitmap.getHeight());
+        if (!frameCache.get(key, output)) {
+            return false;
+        }
+        currentBitmap = output;
+        coarse = false;
+        return true;
+    }
+
+    /**
+     * Stores the current bitmap in the cache.
+     *
+     * @param key the key of the frame, may be {@code null}.
+     */
+    protected void storeFrame(@Nullable final String key) {
+        if (key != null && !getCancellationToken().isCancelled()) {
+            frameCache.put(key, currentBitmap);
+        }
+    }
+
+    @Override
+    public long getOutputKey(@IntRange(from = 0, to = 100) int progressPercent) {
+        final FrameRenderer current = renderer;
+        return current != null ? current.getOutputKey(progressPercent) : progressPercent;
+    }
+
+    @Override
+    public long getFractionOutputKey(@FloatRange(from = 0, to = 1) float progress) {
+        final FrameRenderer current = renderer;
+        return current != null ? current.getFractionOutputKey(progress) : super.getFractionOutputKey(progress);
+    }
+
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+        releaseRenderer();
+        releaseCoarseRenderer();
+        frame = null;
+        hashedBitmap = null;
+    }
+
+    @Override
+    public synchronized void releaseRenderMemory() {
+        super.releaseRenderMemory();
+        releaseRenderer();
+        releaseCoarseRenderer();
+        frame = null;
+        hashedBitmap = null;
+    }
+
+    private void releaseCoarseRenderer() {
+        if (coarseRenderer != null) {
+            coarseRenderer.release();
+            coarseRenderer = null;
+        }
+        coarseFrame = null;
+        scaledOriginal = null;
+        coarse = false;
+        if (coarseBitmap != null) {
+            coarseBitmap.release();
+            coarseBitmap = null;
+        }
+    }
+
+    private void releaseRenderer() {
+        final FrameRenderer released = renderer;
+        if (released != null) {
+            renderer = null;
+            released.release();
+        }
+    }
+}
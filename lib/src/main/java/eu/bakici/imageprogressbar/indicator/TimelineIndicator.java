@@ -0,0 +1,213 @@
+package eu.bakici.imageprogressbar.indicator;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import eu.bakici.imageprogressbar.raster.FrameRenderer;
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.Timeline;
+import eu.bakici.imageprogressbar.utils.IndicatorUtils;
+import eu.bakici.imageprogressbar.utils.MemoryTrimmer;
+
+/**
+ * Renders all frames of a {@link RasterIndicator} in parallel before the progress starts,
+ * so that every progress update only applies the pixels that changed. Meant for progress
+ * that is swept back and forth or replayed, like a seek bar.
+ * <p>
+ * If the frames do not fit into the given memory budget the indicator renders live with
+ * the renderer of the wrapped indicator. It also switches to live rendering when the system
+ * runs low on memory, see {@link MemoryTrimmer}.
+ */
+public class TimelineIndicator extends ProgressIndicator implements MemoryTrimmer.Trimmable {
+
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static ExecutorService executor;
+
+    private final RasterIndicator indicator;
+
+    private final long maxBytes;
+
+    /**
+     * Volatile for {@link #getPreparedByteCount(Bitmap)} and the trim callback, which read it
+     * while the render threads replace it.
+     */
+    private volatile Timeline timeline;
+
+    /**
+     * Renders the frames when the timeline does not fit into the budget.
+     */
+    private volatile FrameRenderer liveRenderer;
+
+    private IntRaster frame;
+
+    private final int[] dirty = new int[4];
+
+    /**
+     * Set on the main thread when the timeline should be dropped, the render thread drops
+     * it with the next progress.
+     */
+    private volatile boolean trimRequested;
+
+    /**
+     * @param indicator the indicator whose frames are precomputed. Its frames must only depend
+     *                  on the progress.
+     * @param maxBytes  the memory the precomputed frames may take, including the frames the
+     *                  precomputation works on.
+     */
+    public TimelineIndicator(final RasterIndicator indicator, final long maxBytes) {
+        super(ASYNC);
+        this.indicator = indicator;
+        this.maxBytes = maxBytes;
+        MemoryTrimmer.add(this);
+    }
+
+    @Override
+    public void onPreProgress(final Bitmap originalBitmap) {
+        timeline = null;
+        releaseLiveRenderer();
+        trimRequested = false;
+        try {
+            timeline = MemoryTrimmer.isLowMemory() ? null : Timeline.precompute(new Timeline.RendererFactory() {
+                @Override
+                public FrameRenderer create() {
+                    return indicator.createRenderer();
+                }
+            }, IndicatorUtils.asRaster(originalBitmap), maxBytes, getExecutor(), PARALLELISM,
+                    getCancellationToken());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        frame = new IntRaster(originalBitmap.getWidth(), originalBitmap.getHeight());
+        if (timeline == null) {
+            startLiveRendering(originalBitmap);
+        } else {
+            timeline.seekBase(frame);
+        }
+        preBitmap = toPreBitmap(frame);
+        currentBitmap = preBitmap;
+    }
+
+    @Override
+    public void onProgress(final Bitmap originalBitmap, @IntRange(from = 0, to = 100) int progressPercent) {
+        boolean restarted = false;
+        if (trimRequested && timeline != null) {
+            timeline = null;
+            startLiveRendering(originalBitmap);
+            restarted = true;
+        }
+        if (timeline == null) {
+            liveRenderer.render(progressPercent, frame, getCancellationToken());
+            if (restarted) {
+                // the frame has been reset to the base frame in between
+                currentBitmap = toOutputBitmap(frame);
+                return;
+            }
+            liveRenderer.getDirtyBounds(dirty);
+            currentBitmap = toOutputBitmap(frame, dirty[0], dirty[1], dirty[2], dirty[3]);
+            return;
+        }
+        timeline.seek(progressPercent, frame, dirty);
+        currentBitmap = toOutputBitmap(frame, dirty[0], dirty[1], dirty[2], dirty[3]);
+    }
+
+    @Override
+    public FrameRenderer createFrameRenderer() {
+        return indicator.createFrameRenderer();
+    }
+
+    @Override
+    public long getOutputKey(@IntRange(from = 0, to = 100) int progressPercent) {
+        final FrameRenderer live = liveRenderer;
+        return live != null ? live.getOutputKey(progressPercent) : progressPercent;
+    }
+
+    @Override
+    public long getPreparedByteCount(final Bitmap originalBitmap) {
+        final Timeline current = timeline;
+        return super.getPreparedByteCount(originalBitmap) + (current != null ? current.getByteCount() : maxBytes);
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        if (MemoryTrimmer.releasesPrecomputed(level)) {
+            trimRequested = true;
+        }
+    }
+
+    /**
+     * @return the memory the precomputed frames take in bytes, 0 if the indicator renders live.
+     */
+    public long getTimelineByteCount() {
+        final Timeline current = timeline;
+        return current != null ? current.getByteCount() : 0;
+    }
+
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+        releaseLiveRenderer();
+        timeline = null;
+        frame = null;
+    }
+
+    @Override
+    public synchronized void releaseRenderMemory() {
+        super.releaseRenderMemory();
+        releaseLiveRenderer();
+        timeline = null;
+        frame = null;
+    }
+
+    private void startLiveRendering(final Bitmap originalBitmap) {
+        final FrameRenderer prepared = indicator.createRenderer();
+        prepared.prepare(IndicatorUtils.asRaster(originalBitmap));
+        prepared.renderBase(frame);
+        liveRenderer = prepared;
+    }
+
+    private void releaseLiveRenderer() {
+        final FrameRenderer released = liveRenderer;
+        if (released != null) {
+            liveRenderer = null;
+            released.release();
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "timeline-" + count++);
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,59 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Fades the original colors in over the black and white image.
+ */
+public class AlphaRenderer extends GrayscaleRenderer {
+
+    private static final int MAX_ALPHA = 255;
+
+    private int[] row;
+
+    @Override
+    public void prepare(final Raster source) {
+        super.prepare(source);
+        row = new int[source.getWidth()];
+    }
+
+    @Override
+    public long getOutputKey(final int progressPercent) {
+        return RasterOps.calcPercent(MAX_ALPHA, progressPercent);
+    }
+
+    @Override
+    public long getFractionOutputKey(final float progress) {
+        return RasterOps.calcFraction(MAX_ALPHA, progress);
+    }
+
+    @Override
+    public void render(final int progressPercent, final IntRaster target) {
+        RasterOps.blend(getGrayscale(), getSource(), RasterOps.calcPercent(MAX_ALPHA, progressPercent), target, row);
+    }
+
+    @Override
+    public void renderFraction(final float progress, final IntRaster target) {
+        RasterOps.blend(getGrayscale(), getSource(), RasterOps.calcFraction(MAX_ALPHA, progress), target, row);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        row = null;
+    }
+}
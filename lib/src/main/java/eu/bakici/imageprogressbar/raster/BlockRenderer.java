@@ -0,0 +1,180 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Random;
+
+/**
+ * Slices the image into square blocks and reveals the original colors block by block.
+ * <p>
+ * Rendering is incremental: when the same target is rendered with a higher progress,
+ * only the blocks revealed since the last frame are copied.
+ */
+public class BlockRenderer extends GrayscaleRenderer {
+
+    /**
+     * The cancellation token is checked once per this many blocks.
+     */
+    private static final int BATCH_MASK = 15;
+
+    private final int size;
+    private int[] bounds;
+    private int[] order;
+    private int blockSum;
+    private IntRaster lastTarget;
+    private int revealed;
+
+    /**
+     * @param size the edge length of one block in pixels.
+     */
+    public BlockRenderer(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        this.size = size;
+    }
+
+    @Override
+    public void prepare(final Raster source) {
+        super.prepare(source);
+        bounds = RasterOps.sliceBlocks(source.getWidth(), source.getHeight(), size);
+        blockSum = bounds.length / 4;
+        order = new int[blockSum];
+        for (int i = 0; i < blockSum; i++) {
+            order[i] = i;
+        }
+        lastTarget = null;
+        revealed = 0;
+    }
+
+    /**
+     * Puts the blocks into a random reveal order.
+     */
+    public void shuffle(final Random random) {
+        for (int i = blockSum; i > 1; i--) {
+            final int j = random.nextInt(i);
+            final int tmp = order[i - 1];
+            order[i - 1] = order[j];
+            order[j] = tmp;
+        }
+        lastTarget = null;
+    }
+
+    /**
+     * @return the number of blocks in this image.
+     */
+    public int getBlockSum() {
+        return blockSum;
+    }
+
+    /**
+     * @return the number of blocks that show their colors at the given progress.
+     */
+    public int getBlockCount(final int progressPercent) {
+        return Math.min(RasterOps.calcPercent(blockSum, progressPercent) + 1, blockSum);
+    }
+
+    /**
+     * @param progress the progress, from 0 to 1.
+     * @return the number of blocks that show their colors at the given progress.
+     */
+    public int getBlockCount(final float progress) {
+        return Math.min(RasterOps.calcFraction(blockSum, progress) + 1, blockSum);
+    }
+
+    /**
+     * Writes the bounds of a block into the given array.
+     *
+     * @param position the position of the block in the reveal order.
+     * @param out      receives left, top, right and bottom.
+     */
+    public void getBlock(final int position, final int[] out) {
+        System.arraycopy(bounds, order[position] * 4, out, 0, 4);
+    }
+
+    /**
+     * @return the number of blocks revealed in the last rendered target.
+     */
+    public int getRevealed() {
+        return revealed;
+    }
+
+    @Override
+    public void renderBase(final IntRaster target) {
+        super.renderBase(target);
+        lastTarget = target;
+        revealed = 0;
+    }
+
+    @Override
+    public long getOutputKey(final int progressPercent) {
+        return getBlockCount(progressPercent);
+    }
+
+    @Override
+    public long getFractionOutputKey(final float progress) {
+        return getBlockCount(progress);
+    }
+
+    @Override
+    public void renderFraction(final float progress, final IntRaster target) {
+        reveal(getBlockCount(progress), target);
+    }
+
+    @Override
+    public void render(final int progressPercent, final IntRaster target) {
+        reveal(getBlockCount(progressPercent), target);
+    }
+
+    /**
+     * Renders the frame in which the first {@code count} blocks of the reveal order show
+     * their colors. If the render is cancelled, the blocks revealed so far stay revealed.
+     * When the progress goes back, only the blocks after {@code count} turn black and white again.
+     */
+    public void reveal(final int count, final IntRaster target) {
+        if (target != lastTarget) {
+            super.renderBase(target);
+            lastTarget = target;
+            revealed = 0;
+        }
+        final Raster source = getSource();
+        final CancellationToken token = getCancellationToken();
+        final int end = Math.min(count, blockSum);
+        for (; revealed > end; revealed--) {
+            if ((revealed & BATCH_MASK) == 0) {
+                token.throwIfCancelled();
+            }
+            final int block = order[revealed - 1] * 4;
+            RasterOps.copyRect(getGrayscale(), target, bounds[block], bounds[block + 1], bounds[block + 2], bounds[block + 3]);
+        }
+        for (; revealed < end; revealed++) {
+            if ((revealed & BATCH_MASK) == 0) {
+                token.throwIfCancelled();
+            }
+            final int block = order[revealed] * 4;
+            RasterOps.copyRect(source, target, bounds[block], bounds[block + 1], bounds[block + 2], bounds[block + 3]);
+        }
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        bounds = null;
+        order = null;
+        lastTarget = null;
+    }
+}
@@ -0,0 +1,65 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Blurs the image and sharpens it while the progress is running.
+ */
+public class BlurRenderer extends FrameRenderer {
+
+    public static final int MAX_RADIUS = 25;
+
+    private final StackBlur blur = new StackBlur();
+
+    private final int scale;
+
+    public BlurRenderer() {
+        this(1);
+    }
+
+    /**
+     * @param scale the factor the source is scaled down by, the radius is scaled with it so
+     *              that the frames look the same once they are scaled up again.
+     */
+    public BlurRenderer(final int scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * @return the blur radius of the given progress, 0 means no blur.
+     */
+    public static int getRadius(final int progressPercent) {
+        return MAX_RADIUS - RasterOps.calcPercent(MAX_RADIUS, progressPercent);
+    }
+
+    @Override
+    public long getOutputKey(final int progressPercent) {
+        return getRadius(progressPercent);
+    }
+
+    @Override
+    public void render(final int progressPercent, final IntRaster target) {
+        final int radius = getRadius(progressPercent);
+        blur.blur(getSource(), target, (radius + scale - 1) / scale, getCancellationToken());
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        blur.release();
+    }
+}
@@ -0,0 +1,77 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Reveals the original colors with a circular sector that starts at twelve o'clock.
+ */
+public class CircularRenderer extends GrayscaleRenderer {
+
+    private static final int FULL_CIRCLE = 360;
+    private static final int START_ANGLE = 270;
+
+    /**
+     * Fractional progress turns in steps of a tenth of a degree.
+     */
+    private static final int ANGLE_STEPS = 10;
+
+    private final boolean clockwise;
+    private int[] row;
+
+    public CircularRenderer(final boolean clockwise) {
+        this.clockwise = clockwise;
+    }
+
+    @Override
+    public void prepare(final Raster source) {
+        super.prepare(source);
+        row = new int[source.getWidth()];
+    }
+
+    @Override
+    public long getOutputKey(final int progressPercent) {
+        return RasterOps.calcPercent(FULL_CIRCLE, progressPercent);
+    }
+
+    @Override
+    public long getFractionOutputKey(final float progress) {
+        return RasterOps.calcFraction(FULL_CIRCLE * ANGLE_STEPS, progress);
+    }
+
+    @Override
+    public void render(final int progressPercent, final IntRaster target) {
+        sweep(RasterOps.calcPercent(FULL_CIRCLE, progressPercent), target);
+    }
+
+    @Override
+    public void renderFraction(final float progress, final IntRaster target) {
+        sweep((float) getFractionOutputKey(progress) / ANGLE_STEPS, target);
+    }
+
+    private void sweep(float angle, final IntRaster target) {
+        if (!clockwise) {
+            angle = angle * (-1);
+        }
+        RasterOps.sweep(getGrayscale(), getSource(), START_ANGLE, angle, target, row);
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        row = null;
+    }
+}
@@ -0,0 +1,153 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Fills the black and white image with the original colors from one edge to the opposite one.
+ */
+public class ColorFillRenderer extends GrayscaleRenderer {
+
+    public static final int LEFT_RIGHT = 0;
+    public static final int RIGHT_LEFT = 1;
+    public static final int TOP_DOWN = 2;
+    public static final int BOTTOM_UP = 3;
+
+    private final int direction;
+
+    /**
+     * The rows or columns of the last frame rendered into {@link #lastTarget}, -1 if unknown.
+     */
+    private int lastFilled = -1;
+
+    private IntRaster lastTarget;
+
+    /**
+     * The left, top, right and bottom of the band that is filled.
+     */
+    private final int[] band = new int[4];
+
+    /**
+     * @param direction one of {@link #LEFT_RIGHT}, {@link #RIGHT_LEFT}, {@link #TOP_DOWN}
+     *                  and {@link #BOTTOM_UP}.
+     */
+    public ColorFillRenderer(final int direction) {
+        if (direction < LEFT_RIGHT || direction > BOTTOM_UP) {
+            throw new IllegalArgumentException("no valid progress direction specified");
+        }
+        this.direction = direction;
+    }
+
+    @Override
+    public void prepare(final Raster source) {
+        super.prepare(source);
+        lastTarget = null;
+        lastFilled = -1;
+    }
+
+    @Override
+    public void renderBase(final IntRaster target) {
+        lastFilled = -1;
+        super.renderBase(target);
+        lastTarget = target;
+        lastFilled = 0;
+    }
+
+    @Override
+    public long getOutputKey(final int progressPercent) {
+        return RasterOps.calcPercent(getFillSize(), progressPercent);
+    }
+
+    @Override
+    public long getFractionOutputKey(final float progress) {
+        return RasterOps.calcFraction(getFillSize(), progress);
+    }
+
+    @Override
+    public void render(final int progressPercent, final IntRaster target) {
+        fill(RasterOps.calcPercent(getFillSize(), progressPercent), target);
+    }
+
+    @Override
+    public void renderFraction(final float progress, final IntRaster target) {
+        fill(RasterOps.calcFraction(getFillSize(), progress), target);
+    }
+
+    /**
+     * @return the number of rows or columns the fill moves through.
+     */
+    private int getFillSize() {
+        final Raster source = getSource();
+        return direction == TOP_DOWN || direction == BOTTOM_UP ? source.getHeight() : source.getWidth();
+    }
+
+    /**
+     * Shows the original colors in the given number of rows or columns, the rest stays black and white.
+     * If the target holds the last frame, only the band between the old and the new edge is copied.
+     */
+    private void fill(final int filled, final IntRaster target) {
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        final int last = target == lastTarget ? lastFilled : -1;
+        // unknown until the fill is complete, a cancelled render may leave it half done
+        lastFilled = -1;
+        lastTarget = target;
+        if (last >= 0) {
+            setBand(Math.min(last, filled), Math.max(last, filled), width, height);
+            RasterOps.copyRect(filled > last ? getSource() : getGrayscale(), target,
+                    band[0], band[1], band[2], band[3]);
+            setDirtyBounds(band[0], band[1], band[2], band[3]);
+            lastFilled = filled;
+            return;
+        }
+        setBand(0, filled, width, height);
+        RasterOps.composeRect(getGrayscale(), getSource(), target, band[0], band[1], band[2], band[3]);
+        lastFilled = filled;
+    }
+
+    /**
+     * Sets {@link #band} to the rows or columns from {@code from} to {@code to}, counted
+     * from the edge the fill starts at.
+     */
+    private void setBand(final int from, final int to, final int width, final int height) {
+        switch (direction) {
+            case LEFT_RIGHT:
+                band[0] = from;
+                band[1] = 0;
+                band[2] = to;
+                band[3] = height;
+                break;
+            case RIGHT_LEFT:
+                band[0] = width - to;
+                band[1] = 0;
+                band[2] = width - from;
+                band[3] = height;
+                break;
+            case TOP_DOWN:
+                band[0] = 0;
+                band[1] = from;
+                band[2] = width;
+                band[3] = to;
+                break;
+            default:
+                band[0] = 0;
+                band[1] = height - to;
+                band[2] = width;
+                band[3] = height - from;
+                break;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The pixel work of one indicator effect, without any Android dependency.
+ * <p>
+ * {@link #prepare(Raster)} is called once per source image. After that every call to
+ * {@link #render(int, IntRaster)} renders a complete frame. Renderers keep their working
+ * buffers between frames, so rendering does not allocate once the first frame is done.
+ * Instances are not thread safe.
+ */
+public abstract class FrameRenderer {
+
+    private Raster source;
+
+    private CancellationToken cancellationToken = CancellationToken.NONE;
+
+    /**
+     * The region the last render changed (left, top, right and bottom).
+     */
+    private final int[] dirty = new int[4];
+
+    /**
+     * Called once before any frame of the given source is rendered. Subclasses do their
+     * expensive preparation here, e.g. the black and white version of the source.
+     *
+     * @param source the original image, it is read but never modified.
+     */
+    public void prepare(final Raster source) {
+        this.source = source;
+    }
+
+    /**
+     * Renders the frame that is shown before the progress starts.
+     * By default this is the frame of 0 percent.
+     */
+    public void renderBase(final IntRaster target) {
+        render(0, target);
+    }
+
+    /**
+     * Renders the frame of the given progress.
+     *
+     * @param progressPercent the progress, from 0 to 100.
+     * @param target          receives the frame, must have the size of the source.
+     */
+    public abstract void render(int progressPercent, IntRaster target);
+
+    /**
+     * Renders the frame of a progress between two percents. Renderers that can show finer
+     * steps override this, by default the progress is rounded up to whole percents.
+     *
+     * @param progress the progress, from 0 to 1.
+     * @param target   receives the frame, must have the size of the source.
+     */
+    public void renderFraction(final float progress, final IntRaster target) {
+        render(RasterOps.toPercent(progress), target);
+    }
+
+    /**
+     * Same as {@link #renderFraction(float, IntRaster)}, but stops with a
+     * {@link RenderCancelledException} when the token is cancelled.
+     */
+    public final void renderFraction(final float progress, final IntRaster target, final CancellationToken token) {
+        token.throwIfCancelled();
+        cancellationToken = token;
+        setDirtyBounds(0, 0, target.getWidth(), target.getHeight());
+        try {
+            renderFraction(progress, target);
+        } finally {
+            cancellationToken = CancellationToken.NONE;
+        }
+    }
+
+    /**
+     * Same as {@link #render(int, IntRaster)}, but stops with a {@link RenderCancelledException}
+     * when the token is cancelled. The target holds an incomplete frame in that case.
+     */
+    public final void render(final int progressPercent, final IntRaster target, final CancellationToken token) {
+        token.throwIfCancelled();
+        cancellationToken = token;
+        setDirtyBounds(0, 0, target.getWidth(), target.getHeight());
+        try {
+            render(progressPercent, target);
+        } finally {
+            cancellationToken = CancellationToken.NONE;
+        }
+    }
+
+    /**
+     * Two progress values with the same key render the same frame, e.g. because they map to
+     * the same blur radius. Lets callers skip frames they already have. The key may only depend
+     * on the progress and on what {@link #prepare(Raster)} has set up, it is read from other
+     * threads.
+     *
+     * @return the key of the frame of the given progress, by default the progress itself.
+     */
+    public long getOutputKey(final int progressPercent) {
+        return progressPercent;
+    }
+
+    /**
+     * Same as {@link #getOutputKey(int)} for {@link #renderFraction(float, IntRaster)}.
+     *
+     * @param progress the progress, from 0 to 1.
+     */
+    public long getFractionOutputKey(final float progress) {
+        return getOutputKey(RasterOps.toPercent(progress));
+    }
+
+    /**
+     * The region in which the frame of the last render with a {@link CancellationToken} differs
+     * from the frame this renderer rendered into the same target before. The whole target unless
+     * the renderer narrows it.
+     *
+     * @param bounds receives left, top, right and bottom.
+     */
+    public void getDirtyBounds(final int[] bounds) {
+        System.arraycopy(dirty, 0, bounds, 0, 4);
+    }
+
+    /**
+     * Narrows the region reported by {@link #getDirtyBounds(int[])}, called while rendering.
+     */
+    protected void setDirtyBounds(final int left, final int top, final int right, final int bottom) {
+        dirty[0] = left;
+        dirty[1] = top;
+        dirty[2] = right;
+        dirty[3] = bottom;
+    }
+
+    /**
+     * Drops the source and all working buffers.
+     */
+    public void release() {
+        source = null;
+    }
+
+    /**
+     * @return the source given to {@link #prepare(Raster)}.
+     */
+    public Raster getSource() {
+        if (source == null) {
+            throw new IllegalStateException("prepare has not been called");
+        }
+        return source;
+    }
+
+    /**
+     * @return the token of the running render, long kernels should check it now and then.
+     */
+    protected CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+}
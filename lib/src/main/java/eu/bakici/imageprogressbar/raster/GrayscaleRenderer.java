@@ -0,0 +1,55 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Base for effects that turn a black and white version of the source into the original
+ * colors while the progress is running.
+ */
+public abstract class GrayscaleRenderer extends FrameRenderer {
+
+    private IntRaster grayscale;
+
+    @Override
+    public void prepare(final Raster source) {
+        super.prepare(source);
+        if (grayscale == null || grayscale.getWidth() != source.getWidth()
+                || grayscale.getHeight() != source.getHeight()) {
+            // prepared again for new pixels of the same size, e.g. a streamed image
+            grayscale = new IntRaster(source.getWidth(), source.getHeight());
+        }
+        RasterOps.grayscale(source, grayscale);
+    }
+
+    @Override
+    public void renderBase(final IntRaster target) {
+        RasterOps.copy(grayscale, target);
+    }
+
+    /**
+     * @return the black and white version of the source.
+     */
+    public IntRaster getGrayscale() {
+        return grayscale;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        grayscale = null;
+    }
+}
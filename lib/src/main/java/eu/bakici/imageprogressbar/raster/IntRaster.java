@@ -0,0 +1,105 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A {@link Raster} that keeps its pixels in a plain {@code int[]}, row by row.
+ */
+public final class IntRaster implements Raster {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    public IntRaster(final int width, final int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    /**
+     * Wraps an existing array. The array is not copied.
+     *
+     * @param width  the width in pixels.
+     * @param height the height in pixels.
+     * @param pixels the colors, at least {@code width * height} entries long.
+     */
+    public IntRaster(final int width, final int height, final int[] pixels) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("negative raster size " + width + "x" + height);
+        }
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixel array too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Creates an {@link IntRaster} holding a copy of the given raster.
+     *
+     * @param source the raster to copy.
+     * @return the copy.
+     */
+    public static IntRaster copyOf(final Raster source) {
+        final IntRaster copy = new IntRaster(source.getWidth(), source.getHeight());
+        source.getPixels(copy.pixels, 0, copy.width, 0, 0, copy.width, copy.height);
+        return copy;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The backing array. Writes to it are visible through this raster.
+     *
+     * @return the pixels, row by row.
+     */
+    public int[] getData() {
+        return pixels;
+    }
+
+    public int getPixel(final int x, final int y) {
+        return pixels[y * width + x];
+    }
+
+    public void setPixel(final int x, final int y, final int color) {
+        pixels[y * width + x] = color;
+    }
+
+    @Override
+    public void getPixels(final int[] dst, final int offset, final int stride,
+                          final int x, final int y, final int width, final int height) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, (y + row) * this.width + x, dst, offset + row * stride, width);
+        }
+    }
+
+    @Override
+    public void setPixels(final int[] src, final int offset, final int stride,
+                          final int x, final int y, final int width, final int height) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(src, offset + row * stride, pixels, (y + row) * this.width + x, width);
+        }
+    }
+}
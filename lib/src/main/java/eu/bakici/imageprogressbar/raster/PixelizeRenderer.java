@@ -0,0 +1,143 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Pixelizes the image and sharpens it while the progress is running. The result is the
+ * same as scaling the image down and up again with point sampling.
+ */
+public class PixelizeRenderer extends FrameRenderer {
+
+    private static final float PROGRESS_TO_PIXELIZATION_FACTOR = 3000.f;
+
+    /**
+     * The cancellation token is checked once per this many rows.
+     */
+    private static final int BAND_MASK = 15;
+
+    private int[] columns;
+    private int[] row;
+
+    /**
+     * @return the pixelization factor of the given progress, 0 means full resolution.
+     */
+    public static float getPixelizationFactor(final int progressPercent) {
+        return (100 - progressPercent) / PROGRESS_TO_PIXELIZATION_FACTOR;
+    }
+
+    /**
+     * @param progress the progress, from 0 to 1.
+     * @return the pixelization factor of the given progress, 0 means full resolution.
+     */
+    public static float getPixelizationFactor(final float progress) {
+        return (1 - progress) * 100 / PROGRESS_TO_PIXELIZATION_FACTOR;
+    }
+
+    @Override
+    public void prepare(final Raster source) {
+        super.prepare(source);
+        columns = new int[source.getWidth()];
+        row = new int[source.getWidth()];
+    }
+
+    @Override
+    public long getOutputKey(final int progressPercent) {
+        return getKey(getPixelizationFactor(progressPercent));
+    }
+
+    @Override
+    public long getFractionOutputKey(final float progress) {
+        return getKey(getPixelizationFactor(progress));
+    }
+
+    /**
+     * @return the size of the scaled down image.
+     */
+    private long getKey(final float factor) {
+        final Raster source = getSource();
+        final long scaledWidth = scaledSize(factor, source.getWidth());
+        final long scaledHeight = scaledSize(factor, source.getHeight());
+        return (scaledWidth << 32) | scaledHeight;
+    }
+
+    @Override
+    public void renderFraction(final float progress, final IntRaster target) {
+        pixelize(getPixelizationFactor(progress), target);
+    }
+
+    @Override
+    public void render(final int progressPercent, final IntRaster target) {
+        pixelize(getPixelizationFactor(progressPercent), target);
+    }
+
+    /**
+     * Renders the source with the given pixelization factor. The factor is the edge length
+     * of one pixelized cell relative to the image size.
+     */
+    public void pixelize(final float pixelizationFactor, final IntRaster target) {
+        final Raster source = getSource();
+        final int width = target.getWidth();
+        final int height = target.getHeight();
+        if (width == 0 || height == 0) {
+            return;
+        }
+        final int scaledWidth = scaledSize(pixelizationFactor, width);
+        final int scaledHeight = scaledSize(pixelizationFactor, height);
+        for (int x = 0; x < width; x++) {
+            columns[x] = sample(x, width, scaledWidth);
+        }
+
+        final int[] pixels = target.getData();
+        final CancellationToken token = getCancellationToken();
+        int lastSourceRow = -1;
+        for (int y = 0; y < height; y++) {
+            if ((y & BAND_MASK) == 0) {
+                token.throwIfCancelled();
+            }
+            final int sourceRow = sample(y, height, scaledHeight);
+            final int offset = y * width;
+            if (sourceRow == lastSourceRow) {
+                System.arraycopy(pixels, offset - width, pixels, offset, width);
+                continue;
+            }
+            source.getPixels(row, 0, width, 0, sourceRow, width, 1);
+            for (int x = 0; x < width; x++) {
+                pixels[offset + x] = row[columns[x]];
+            }
+            lastSourceRow = sourceRow;
+        }
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        columns = null;
+        row = null;
+    }
+
+    private static int scaledSize(final float pixelizationFactor, final int size) {
+        return size / Math.max((int) (pixelizationFactor * size), 1);
+    }
+
+    /**
+     * Maps a coordinate through a point sampled down- and upscale.
+     */
+    private static int sample(final int i, final int size, final int scaledSize) {
+        final long scaled = ((2L * i + 1) * scaledSize) / (2L * size);
+        return (int) Math.min(((2 * scaled + 1) * size) / (2L * scaledSize), size - 1);
+    }
+}
@@ -0,0 +1,63 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A rectangular grid of ARGB pixels. The pixels are non-premultiplied 32 bit colors
+ * in the same layout {@code android.graphics.Bitmap#getPixels} uses.
+ * <p>
+ * This package does not depend on the Android framework, so that the pixel kernels
+ * can run (and be measured) on a plain JVM.
+ */
+public interface Raster {
+
+    /**
+     * @return the width in pixels.
+     */
+    int getWidth();
+
+    /**
+     * @return the height in pixels.
+     */
+    int getHeight();
+
+    /**
+     * Copies a region of this raster into an array.
+     *
+     * @param pixels the array that receives the colors.
+     * @param offset the first index to write into {@code pixels}.
+     * @param stride the number of entries in {@code pixels} to skip between rows.
+     * @param x      the x coordinate of the first pixel to read.
+     * @param y      the y coordinate of the first pixel to read.
+     * @param width  the number of pixels to read from each row.
+     * @param height the number of rows to read.
+     */
+    void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+
+    /**
+     * Replaces a region of this raster with colors from an array.
+     *
+     * @param pixels the colors to write.
+     * @param offset the first index to read from {@code pixels}.
+     * @param stride the number of entries in {@code pixels} to skip between rows.
+     * @param x      the x coordinate of the first pixel to write.
+     * @param y      the y coordinate of the first pixel to write.
+     * @param width  the number of pixels to write into each row.
+     * @param height the number of rows to write.
+     */
+    void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+}
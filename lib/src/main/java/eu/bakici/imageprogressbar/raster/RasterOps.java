@@ -0,0 +1,276 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The pixel kernels of the built-in indicators. Every kernel reads from {@link Raster}s
+ * and writes into an {@link IntRaster}, the inputs are never modified. The results only
+ * depend on the arguments, so the same kernel gives the same output on a device and on
+ * a plain JVM.
+ */
+public final class RasterOps {
+
+    private static final int FULL_CIRCLE = 360;
+
+    /**
+     * Float noise below this many percent is ignored when a fraction is rounded up.
+     */
+    private static final float PERCENT_TOLERANCE = 1e-3f;
+
+    private RasterOps() {
+    }
+
+    /**
+     * @return the given percentage of a value, rounded to the nearest integer.
+     */
+    public static int calcPercent(final int value, final int percent) {
+        final float p = (float) percent;
+        final float p100 = p / 100;
+        return Math.round(value * p100);
+    }
+
+    /**
+     * @param fraction the progress, from 0 to 1.
+     * @return the given fraction of a value, rounded to the nearest integer. For
+     * {@code percent / 100f} this is the same as {@link #calcPercent(int, int)}.
+     */
+    public static int calcFraction(final int value, final float fraction) {
+        return Math.round(value * fraction);
+    }
+
+    /**
+     * @param fraction the progress, from 0 to 1.
+     * @return the progress in whole percents, rounded up.
+     */
+    public static int toPercent(final float fraction) {
+        final int percent = (int) Math.ceil(fraction * 100 - PERCENT_TOLERANCE);
+        return Math.max(0, Math.min(percent, 100));
+    }
+
+    /**
+     * Copies the whole source into the destination. Both must have the same size.
+     */
+    public static void copy(final Raster src, final IntRaster dst) {
+        final int width = dst.getWidth();
+        src.getPixels(dst.getData(), 0, width, 0, 0, width, dst.getHeight());
+    }
+
+    /**
+     * Copies a region of the source into the same region of the destination.
+     * The region is clipped to the bounds of the destination.
+     */
+    public static void copyRect(final Raster src, final IntRaster dst,
+                                int left, int top, int right, int bottom) {
+        final int width = dst.getWidth();
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, dst.getHeight());
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        src.getPixels(dst.getData(), top * width + left, width, left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Removes the saturation of the source, the same way a {@code ColorMatrix} with a
+     * saturation of 0 does. The alpha channel is preserved.
+     */
+    public static void grayscale(final Raster src, final IntRaster dst) {
+        copy(src, dst);
+        final int[] pixels = dst.getData();
+        final int size = dst.getWidth() * dst.getHeight();
+        for (int i = 0; i < size; i++) {
+            final int p = pixels[i];
+            final int r = (p >> 16) & 0xff;
+            final int g = (p >> 8) & 0xff;
+            final int b = p & 0xff;
+            // 0.213, 0.715 and 0.072 in fixed point
+            final int l = (55 * r + 183 * g + 18 * b) >> 8;
+            pixels[i] = (p & 0xff000000) | (l << 16) | (l << 8) | l;
+        }
+    }
+
+    /**
+     * Fills the destination with {@code base}, except for the given region which
+     * is taken from {@code overlay}.
+     */
+    public static void composeRect(final Raster base, final Raster overlay, final IntRaster dst,
+                                   final int left, final int top, final int right, final int bottom) {
+        copy(base, dst);
+        copyRect(overlay, dst, left, top, right, bottom);
+    }
+
+    /**
+     * Draws {@code overlay} with the given alpha over {@code base}.
+     *
+     * @param alpha the opacity of the overlay, from 0 to 255.
+     */
+    public static void blend(final Raster base, final Raster overlay, final int alpha, final IntRaster dst) {
+        blend(base, overlay, alpha, dst, new int[dst.getWidth()]);
+    }
+
+    /**
+     * Same as {@link #blend(Raster, Raster, int, IntRaster)} but with a caller provided row buffer.
+     *
+     * @param row at least as long as the width of the destination.
+     */
+    public static void blend(final Raster base, final Raster overlay, final int alpha,
+                             final IntRaster dst, final int[] row) {
+        copy(base, dst);
+        if (alpha <= 0) {
+            return;
+        }
+        if (alpha >= 255) {
+            copy(overlay, dst);
+            return;
+        }
+        final int width = dst.getWidth();
+        final int height = dst.getHeight();
+        final int[] pixels = dst.getData();
+        for (int y = 0; y < height; y++) {
+            overlay.getPixels(row, 0, width, 0, y, width, 1);
+            final int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[offset + x] = over(pixels[offset + x], row[x], alpha);
+            }
+        }
+    }
+
+    /**
+     * Fills the destination with {@code base}, except for a circular sector around the center
+     * which is taken from {@code overlay}. The angles are in degrees, 0 points to the right and
+     * positive angles turn clockwise, like {@code Canvas#drawArc}.
+     *
+     * @param startAngle where the sector begins.
+     * @param sweepAngle the size of the sector, negative values turn counterclockwise.
+     */
+    public static void sweep(final Raster base, final Raster overlay,
+                             final float startAngle, final float sweepAngle, final IntRaster dst) {
+        sweep(base, overlay, startAngle, sweepAngle, dst, new int[dst.getWidth()]);
+    }
+
+    /**
+     * Same as {@link #sweep(Raster, Raster, float, float, IntRaster)} but with a caller provided
+     * row buffer.
+     *
+     * @param row at least as long as the width of the destination.
+     */
+    public static void sweep(final Raster base, final Raster overlay,
+                             float startAngle, float sweepAngle, final IntRaster dst, final int[] row) {
+        copy(base, dst);
+        if (sweepAngle == 0) {
+            return;
+        }
+        if (sweepAngle <= -FULL_CIRCLE || sweepAngle >= FULL_CIRCLE) {
+            copy(overlay, dst);
+            return;
+        }
+        if (sweepAngle < 0) {
+            startAngle += sweepAngle;
+            sweepAngle = -sweepAngle;
+        }
+        final double start = Math.toRadians(startAngle);
+        final double end = Math.toRadians(startAngle + sweepAngle);
+        final float startX = (float) Math.cos(start);
+        final float startY = (float) Math.sin(start);
+        final float endX = (float) Math.cos(end);
+        final float endY = (float) Math.sin(end);
+        final boolean reflex = sweepAngle > FULL_CIRCLE / 2;
+
+        final int width = dst.getWidth();
+        final int height = dst.getHeight();
+        final float centerX = width / 2f;
+        final float centerY = height / 2f;
+        final int[] pixels = dst.getData();
+        for (int y = 0; y < height; y++) {
+            overlay.getPixels(row, 0, width, 0, y, width, 1);
+            final float py = y + 0.5f - centerY;
+            final int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                final float px = x + 0.5f - centerX;
+                // the sign of the cross products tells on which side of the
+                // start and end rays the pixel lies, no trigonometry per pixel.
+                final float fromStart = startX * py - startY * px;
+                final float toEnd = px * endY - py * endX;
+                final boolean inside = reflex
+                        ? !(fromStart < 0 && toEnd < 0)
+                        : fromStart >= 0 && toEnd >= 0;
+                if (inside) {
+                    pixels[offset + x] = row[x];
+                }
+            }
+        }
+    }
+
+    /**
+     * Slices an area into square blocks, row by row. The last column and row are clipped
+     * to the area and may be empty.
+     *
+     * @param width  the width of the area.
+     * @param height the height of the area.
+     * @param size   the edge length of one block.
+     * @return the bounds of the blocks, four entries (left, top, right, bottom) per block.
+     */
+    public static int[] sliceBlocks(final int width, final int height, final int size) {
+        final int numberOfCols = (width / size) + 1;
+        final int numberOfRows = (height / size) + 1;
+        final int blockSum = numberOfCols * numberOfRows;
+        final int[] bounds = new int[blockSum * 4];
+        for (int i = 0; i < blockSum; i++) {
+            final int col = i % numberOfCols;
+            final int row = i / numberOfCols;
+            final int left = col * size;
+            final int top = row * size;
+            bounds[i * 4] = left;
+            bounds[i * 4 + 1] = top;
+            bounds[i * 4 + 2] = Math.min(left + size, width);
+            bounds[i * 4 + 3] = Math.min(top + size, height);
+        }
+        return bounds;
+    }
+
+    /**
+     * Blurs the source into the destination. The alpha channel is preserved.
+     * A radius smaller than 1 only copies the source.
+     *
+     * @see StackBlur
+     */
+    public static void stackBlur(final Raster src, final IntRaster dst, final int radius) {
+        new StackBlur().blur(src, dst, radius);
+    }
+
+    /**
+     * Source-over composition of two non-premultiplied colors.
+     */
+    private static int over(final int dst, final int src, final int alpha) {
+        final int sa = ((src >>> 24) * alpha + 127) / 255;
+        if (sa == 0) {
+            return dst;
+        }
+        final int da = dst >>> 24;
+        final int srcWeight = sa * 255;
+        final int dstWeight = da * (255 - sa);
+        final int total = srcWeight + dstWeight;
+        final int half = total >> 1;
+        final int r = (((src >> 16) & 0xff) * srcWeight + ((dst >> 16) & 0xff) * dstWeight + half) / total;
+        final int g = (((src >> 8) & 0xff) * srcWeight + ((dst >> 8) & 0xff) * dstWeight + half) / total;
+        final int b = ((src & 0xff) * srcWeight + (dst & 0xff) * dstWeight + half) / total;
+        final int a = (total + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,30 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Thrown by a kernel whose {@link CancellationToken} has been cancelled. The target
+ * of the kernel holds an incomplete frame afterwards.
+ */
+public class RenderCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RenderCancelledException() {
+        super("render cancelled");
+    }
+}
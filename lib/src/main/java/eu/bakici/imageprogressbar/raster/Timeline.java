@@ -0,0 +1,367 @@
+package eu.bakici.imageprogressbar.raster;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * All 101 percent frames of a deterministic {@link FrameRenderer}, rendered ahead of time.
+ * <p>
+ * Only the frame before the progress starts is kept completely. Every percent frame is
+ * stored as the regions that changed against the frame before, so walking the progress
+ * forward applies one small patch per step.
+ */
+public final class Timeline {
+
+    /**
+     * Creates renderers that render the same frames for the same progress.
+     */
+    public interface RendererFactory {
+        FrameRenderer create();
+    }
+
+    private static final int FRAMES = 101;
+
+    /**
+     * The changed pixels are searched in bands of this many rows, which keeps
+     * diagonal and circular edges from becoming one big rectangle.
+     */
+    private static final int BAND_HEIGHT = 16;
+
+    /**
+     * The frames a task holds while it renders: the two frames it compares and about one
+     * more for the buffers of its renderer.
+     */
+    private static final int TASK_FRAMES = 3;
+
+    private final int width;
+    private final int height;
+    private final int[] base;
+    private final Patch[] patches;
+    private final long byteCount;
+
+    /**
+     * The frame the last target shows, -1 for the base frame.
+     */
+    private int position;
+    private IntRaster lastTarget;
+
+    private Timeline(final int width, final int height, final int[] base, final Patch[] patches) {
+        this.width = width;
+        this.height = height;
+        this.base = base;
+        this.patches = patches;
+        long bytes = base.length * 4L;
+        for (final Patch patch : patches) {
+            bytes += patch.byteCount();
+        }
+        byteCount = bytes;
+    }
+
+    /**
+     * Renders all frames in parallel. Each task renders a contiguous range of percents
+     * with its own renderer. The frames the tasks work on count against the budget while
+     * they run, so fewer tasks are started if half of the budget does not hold them.
+     *
+     * @param factory     creates one renderer per task.
+     * @param source      the original image, only read.
+     * @param maxBytes    the memory the timeline may take, including the frames of the tasks
+     *                    while it is precomputed. The precomputation stops as soon as the
+     *                    encoded frames exceed it.
+     * @param executor    runs the tasks.
+     * @param parallelism the maximum number of tasks.
+     * @param token       stops the tasks when cancelled.
+     * @return the timeline, or {@code null} if it does not fit into {@code maxBytes}.
+     * @throws RenderCancelledException if the token has been cancelled.
+     */
+    public static Timeline precompute(final RendererFactory factory, final Raster source, final long maxBytes,
+                                      final ExecutorService executor, final int parallelism,
+                                      final CancellationToken token)
+            throws InterruptedException {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final long baseBytes = width * height * 4L;
+        final long taskBytes = TASK_FRAMES * baseBytes;
+        if (baseBytes + taskBytes > maxBytes) {
+            return null;
+        }
+        final long affordable = (maxBytes - baseBytes) / 2 / taskBytes;
+        final int tasks = (int) Math.max(1, Math.min(Math.min(parallelism, FRAMES), affordable));
+        final AtomicLong bytes = new AtomicLong(baseBytes + tasks * taskBytes);
+        final Patch[] patches = new Patch[FRAMES];
+        final IntRaster base = new IntRaster(width, height);
+
+        final List<Future<Boolean>> futures = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            final int from = i * FRAMES / tasks;
+            final int to = (i + 1) * FRAMES / tasks;
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return encode(factory, source, from, to, from == 0 ? base : null, patches, bytes, maxBytes, token);
+                }
+            }));
+        }
+        boolean fits = true;
+        try {
+            for (final Future<Boolean> future : futures) {
+                fits &= future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RenderCancelledException) {
+                throw (RenderCancelledException) e.getCause();
+            }
+            throw new IllegalStateException("rendering the timeline failed", e.getCause());
+        } finally {
+            for (final Future<Boolean> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (!fits) {
+            return null;
+        }
+        return new Timeline(width, height, base.getData(), patches);
+    }
+
+    /**
+     * Renders the frames {@code from} (inclusive) to {@code to} (exclusive) and stores
+     * their differences.
+     *
+     * @param base receives the frame before the progress starts, only given to the first task.
+     * @return false if the budget has been exceeded.
+     */
+    private static boolean encode(final RendererFactory factory, final Raster source, final int from, final int to,
+                                  final IntRaster base, final Patch[] patches,
+                                  final AtomicLong bytes, final long maxBytes,
+                                  final CancellationToken token) {
+        final FrameRenderer renderer = factory.create();
+        renderer.prepare(source);
+        try {
+            IntRaster previous = new IntRaster(source.getWidth(), source.getHeight());
+            IntRaster current = new IntRaster(source.getWidth(), source.getHeight());
+            if (from == 0) {
+                renderer.renderBase(previous);
+                RasterOps.copy(previous, base);
+            } else {
+                renderer.render(from - 1, previous, token);
+            }
+            for (int percent = from; percent < to; percent++) {
+                if (bytes.get() > maxBytes || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                renderer.render(percent, current, token);
+                final Patch patch = Patch.diff(previous, current);
+                patches[percent] = patch;
+                if (bytes.addAndGet(patch.byteCount()) > maxBytes) {
+                    return false;
+                }
+                final IntRaster swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return true;
+        } finally {
+            renderer.release();
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the memory the frames take, in bytes.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Writes the frame that is shown before the progress starts.
+     */
+    public void seekBase(final IntRaster target) {
+        System.arraycopy(base, 0, target.getData(), 0, base.length);
+        lastTarget = target;
+        position = -1;
+    }
+
+    /**
+     * Brings the target to the frame of the given progress. If the target is the one of
+     * the last call and the progress did not go back, only the patches in between are
+     * applied.
+     *
+     * @param dirty receives the bounds of the region that changed (left, top, right, bottom),
+     *              empty if nothing changed. May be {@code null}.
+     */
+    public void seek(final int progressPercent, final IntRaster target, final int[] dirty) {
+        final int percent = Math.max(0, Math.min(progressPercent, FRAMES - 1));
+        int left = width;
+        int top = height;
+        int right = 0;
+        int bottom = 0;
+        if (target != lastTarget || percent < position) {
+            seekBase(target);
+            left = 0;
+            top = 0;
+            right = width;
+            bottom = height;
+        }
+        for (int p = position + 1; p <= percent; p++) {
+            final Patch patch = patches[p];
+            if (patch.isEmpty()) {
+                // the frame did not change, its bounds would stretch the union to the origin
+                continue;
+            }
+            patch.apply(target);
+            left = Math.min(left, patch.left);
+            top = Math.min(top, patch.top);
+            right = Math.max(right, patch.right);
+            bottom = Math.max(bottom, patch.bottom);
+        }
+        position = Math.max(position, percent);
+        if (dirty != null) {
+            if (right <= left || bottom <= top) {
+                left = top = right = bottom = 0;
+            }
+            dirty[0] = left;
+            dirty[1] = top;
+            dirty[2] = right;
+            dirty[3] = bottom;
+        }
+    }
+
+    /**
+     * The pixels that differ between two frames, as one rectangle per band of rows.
+     */
+    private static final class Patch {
+
+        /**
+         * Four entries (left, top, right, bottom) per region.
+         */
+        private final int[] regions;
+        private final int[][] pixels;
+
+        /**
+         * The union of all regions.
+         */
+        private final int left;
+        private final int top;
+        private final int right;
+        private final int bottom;
+
+        private Patch(final int[] regions, final int[][] pixels) {
+            this.regions = regions;
+            this.pixels = pixels;
+            int l = Integer.MAX_VALUE;
+            int t = Integer.MAX_VALUE;
+            int r = 0;
+            int b = 0;
+            for (int i = 0; i < regions.length; i += 4) {
+                l = Math.min(l, regions[i]);
+                t = Math.min(t, regions[i + 1]);
+                r = Math.max(r, regions[i + 2]);
+                b = Math.max(b, regions[i + 3]);
+            }
+            left = regions.length == 0 ? 0 : l;
+            top = regions.length == 0 ? 0 : t;
+            right = r;
+            bottom = b;
+        }
+
+        /**
+         * @return true if the frame is the same as the one before.
+         */
+        boolean isEmpty() {
+            return regions.length == 0;
+        }
+
+        static Patch diff(final IntRaster previous, final IntRaster current) {
+            final int width = current.getWidth();
+            final int height = current.getHeight();
+            final int[] before = previous.getData();
+            final int[] after = current.getData();
+            final List<int[]> regions = new ArrayList<>();
+            for (int bandTop = 0; bandTop < height; bandTop += BAND_HEIGHT) {
+                final int bandBottom = Math.min(bandTop + BAND_HEIGHT, height);
+                int minX = width;
+                int maxX = -1;
+                int minY = bandBottom;
+                int maxY = -1;
+                for (int y = bandTop; y < bandBottom; y++) {
+                    final int offset = y * width;
+                    int x = 0;
+                    while (x < width && before[offset + x] == after[offset + x]) {
+                        x++;
+                    }
+                    if (x == width) {
+                        continue;
+                    }
+                    int lastX = width - 1;
+                    while (before[offset + lastX] == after[offset + lastX]) {
+                        lastX--;
+                    }
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, lastX);
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+                if (maxX >= 0) {
+                    regions.add(new int[]{minX, minY, maxX + 1, maxY + 1});
+                }
+            }
+            final int[] bounds = new int[regions.size() * 4];
+            final int[][] pixels = new int[regions.size()][];
+            for (int i = 0; i < regions.size(); i++) {
+                final int[] region = regions.get(i);
+                System.arraycopy(region, 0, bounds, i * 4, 4);
+                final int regionWidth = region[2] - region[0];
+                final int regionHeight = region[3] - region[1];
+                pixels[i] = new int[regionWidth * regionHeight];
+                current.getPixels(pixels[i], 0, regionWidth, region[0], region[1], regionWidth, regionHeight);
+            }
+            return new Patch(bounds, pixels);
+        }
+
+        void apply(final IntRaster target) {
+            for (int i = 0; i < pixels.length; i++) {
+                final int left = regions[i * 4];
+                final int top = regions[i * 4 + 1];
+                final int regionWidth = regions[i * 4 + 2] - left;
+                final int regionHeight = regions[i * 4 + 3] - top;
+                target.setPixels(pixels[i], 0, regionWidth, left, top, regionWidth, regionHeight);
+            }
+        }
+
+        long byteCount() {
+            long bytes = regions.length * 4L;
+            for (final int[] region : pixels) {
+                bytes += region.length * 4L;
+            }
+            return bytes;
+        }
+    }
+}
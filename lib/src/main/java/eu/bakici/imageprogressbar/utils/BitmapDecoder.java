@@ -0,0 +1,181 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images no larger than they are shown.
+ */
+public final class BitmapDecoder {
+
+    /**
+     * Opens an encoded image. It is opened twice, once for its bounds and once to decode it.
+     */
+    public interface StreamOpener {
+
+        InputStream open() throws IOException;
+    }
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * @param reqWidth  the width the image is shown at, 0 or less if it is not known.
+     * @param reqHeight the height the image is shown at, 0 or less if it is not known.
+     * @return the largest power of two the image can be subsampled by while it stays at
+     * least as large as requested in both dimensions.
+     */
+    public static int calculateInSampleSize(final int width, final int height,
+                                            final int reqWidth, final int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decodes the first bytes of an encoded image. Where the platform decodes incomplete
+     * images, the part that has not been received is left empty, older versions return
+     * {@code null} until the image is complete. Like {@link #decodeSampled} the pixels go
+     * into a bitmap of the pool where possible, so that decoding the image again as more of
+     * it arrives does not allocate a bitmap each time.
+     *
+     * @param data      the received bytes.
+     * @param length    the number of received bytes.
+     * @param reqWidth  the width the image is shown at, 0 if it is not known.
+     * @param reqHeight the height the image is shown at, 0 if it is not known.
+     * @param pool      the pool to take a bitmap to decode into from, {@code null} to allocate one.
+     * @return the image, {@code null} if it cannot be decoded yet.
+     */
+    @Nullable
+    public static Bitmap decodePrefix(final byte[] data, final int length,
+                                      final int reqWidth, final int reqHeight,
+                                      @Nullable final BitmapPool pool) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // the header has not been received yet
+            return null;
+        }
+        final int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inSampleSize = sampleSize;
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        final Bitmap reusable = pool == null ? null
+                : obtainReusable(pool, options.outWidth, options.outHeight, sampleSize);
+        if (reusable != null) {
+            options.inBitmap = reusable;
+            try {
+                final Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IllegalArgumentException e) {
+                // the decoder does not support decoding this image into an existing bitmap
+            }
+            pool.release(reusable);
+            options.inBitmap = null;
+        }
+        return BitmapFactory.decodeByteArray(data, 0, length, options);
+    }
+
+    /**
+     * Decodes an image subsampled to the size it is shown at. Where the platform allows it,
+     * the pixels are decoded into a bitmap of the pool instead of a new one. The result is
+     * mutable and ARGB_8888, so it can go back to the pool once it is not shown anymore.
+     * Density scaling is skipped, the view scales the image anyway.
+     *
+     * @param reqWidth  the width the image is shown at, 0 if it is not known.
+     * @param reqHeight the height the image is shown at, 0 if it is not known.
+     * @param pool      the pool to take a bitmap to decode into from, {@code null} to allocate one.
+     * @return the image, {@code null} if it is not a bitmap, e.g. a vector resource.
+     */
+    @Nullable
+    public static Bitmap decodeSampled(final StreamOpener opener, final int reqWidth, final int reqHeight,
+                                       @Nullable final BitmapPool pool) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(opener, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        final int sampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inSampleSize = sampleSize;
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inScaled = false;
+        options.inMutable = true;
+        final Bitmap reusable = pool == null ? null
+                : obtainReusable(pool, options.outWidth, options.outHeight, sampleSize);
+        if (reusable != null) {
+            options.inBitmap = reusable;
+            try {
+                final Bitmap bitmap = decodeStream(opener, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IllegalArgumentException e) {
+                // the decoder does not support decoding this image into an existing bitmap
+            }
+            pool.release(reusable);
+            options.inBitmap = null;
+        }
+        return decodeStream(opener, options);
+    }
+
+    /**
+     * Before KitKat only unsampled images can be decoded into an existing bitmap of exactly
+     * their size. Since then any bitmap that is large enough is reconfigured to the image.
+     *
+     * @return the bitmap to decode into, {@code null} if none can be used.
+     */
+    @Nullable
+    private static Bitmap obtainReusable(final BitmapPool pool, final int width, final int height,
+                                         final int sampleSize) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // codecs round the subsampled size differently, rounded up it is large enough for all
+            return pool.obtain((width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize);
+        }
+        if (sampleSize == 1) {
+            return pool.obtain(width, height);
+        }
+        return null;
+    }
+
+    private static Bitmap decodeStream(final StreamOpener opener, final BitmapFactory.Options options)
+            throws IOException {
+        final InputStream stream = opener.open();
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps released frame bitmaps for reuse, so that a new indicator or image size does not
+ * allocate while bitmaps of the same size are lying around. Bitmaps that do not fit into
+ * the pool are recycled right away.
+ */
+public final class BitmapPool {
+
+    private static final BitmapPool INSTANCE = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+
+    private final List<Bitmap> bitmaps = new ArrayList<>();
+
+    private long maxBytes;
+
+    private long bytes;
+
+    private long misses;
+
+    public BitmapPool(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the pool shared by all indicators of this process.
+     */
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a mutable ARGB_8888 bitmap of the given size, its pixels are undefined.
+     */
+    public synchronized Bitmap obtain(final int width, final int height) {
+        for (int i = bitmaps.size() - 1; i >= 0; i--) {
+            final Bitmap bitmap = bitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                bitmaps.remove(i);
+                bytes -= byteCount(bitmap);
+                return bitmap;
+            }
+        }
+        misses++;
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @return the number of bitmaps {@link #obtain(int, int)} had to allocate because none of
+     * the pooled ones fitted. Once the frames of an indicator are running, it should not grow.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Puts a bitmap nobody uses anymore into the pool, or recycles it if the pool is full.
+     */
+    public synchronized void release(final Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        final long size = byteCount(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888 || bytes + size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        bitmaps.add(bitmap);
+        bytes += size;
+    }
+
+    /**
+     * Recycles the oldest bitmaps until the pool takes at most the given memory.
+     */
+    public synchronized void trimToSize(final long maxSize) {
+        while (bytes > maxSize && !bitmaps.isEmpty()) {
+            final Bitmap bitmap = bitmaps.remove(0);
+            bytes -= byteCount(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Changes the memory the pool may take.
+     */
+    public synchronized void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * @return the memory the pooled bitmaps take.
+     */
+    public synchronized long getByteCount() {
+        return bytes;
+    }
+
+    /**
+     * A bitmap reconfigured to a smaller size by a decode into it keeps its larger
+     * allocation, which only API 19+ reports.
+     */
+    @SuppressLint("NewApi")
+    private static long byteCount(final Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
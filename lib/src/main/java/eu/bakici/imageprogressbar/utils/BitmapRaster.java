@@ -0,0 +1,60 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+
+import eu.bakici.imageprogressbar.raster.Raster;
+
+/**
+ * Lets the raster kernels read from and write into a {@link Bitmap}.
+ * Writing requires a mutable bitmap.
+ */
+public final class BitmapRaster implements Raster {
+
+    private final Bitmap bitmap;
+
+    public BitmapRaster(final Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public void getPixels(final int[] pixels, final int offset, final int stride,
+                          final int x, final int y, final int width, final int height) {
+        bitmap.getPixels(pixels, offset, stride, x, y, width, height);
+    }
+
+    @Override
+    public void setPixels(final int[] pixels, final int offset, final int stride,
+                          final int x, final int y, final int width, final int height) {
+        bitmap.setPixels(pixels, offset, stride, x, y, width, height);
+    }
+}
@@ -0,0 +1,258 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps rendered frames on disk, so that frames that are expensive to render come back
+ * without being rendered again when the same image and indicator show up later. Every frame
+ * is a file with the raw pixels of the bitmap, which is memory mapped and copied straight
+ * into the target bitmap. The least recently used frames are deleted once the cache exceeds
+ * its size.
+ * <p>
+ * Frames are keyed by the content of the original image, the indicator and its parameters
+ * and the output key of the frame, see {@link #createKey(long, String, String)}.
+ */
+public final class DiskFrameCache {
+
+    private static final String TAG = DiskFrameCache.class.getSimpleName();
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    /**
+     * The size of every frame by key, the least recently used first.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    private boolean loaded;
+
+    /**
+     * @param directory the directory the frames are stored in, e.g. a folder in the cache
+     *                  directory of the app. Other files must not be stored there.
+     * @param maxBytes  the disk space the frames may take.
+     */
+    public DiskFrameCache(final File directory, final long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Hashes the pixels of an image, so that the frames of an image are found again for
+     * another bitmap with the same content.
+     */
+    public static long contentHash(final Bitmap bitmap) {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] row = new int[width];
+        long hash = FNV_OFFSET;
+        hash = (hash ^ width) * FNV_PRIME;
+        hash = (hash ^ height) * FNV_PRIME;
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                hash = (hash ^ row[x]) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param contentHash  the {@link #contentHash(Bitmap)} of the original image.
+     * @param indicatorKey the indicator and its parameters.
+     * @param frameKey     the frame, e.g. its output key.
+     * @return the key of the frame.
+     */
+    public static String createKey(final long contentHash, final String indicatorKey, final String frameKey) {
+        final String key = Long.toHexString(contentHash) + '-' + indicatorKey + '-' + frameKey;
+        // used as the file name
+        return key.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    /**
+     * @return true if a frame is cached under the key, without reading it.
+     */
+    public synchronized boolean contains(final String key) {
+        load();
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Copies a cached frame into the target bitmap.
+     *
+     * @param target a mutable ARGB_8888 bitmap of the size of the frame.
+     * @return false if the frame is not cached, the target is unchanged then.
+     */
+    public synchronized boolean get(final String key, final Bitmap target) {
+        load();
+        final Long size = entries.get(key);
+        if (size == null || size != byteCount(target) || target.getConfig() != Bitmap.Config.ARGB_8888) {
+            return false;
+        }
+        final File file = new File(directory, key);
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+                target.copyPixelsFromBuffer(mapped);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read frame " + key, e);
+            remove(key);
+            return false;
+        }
+        // keeps the order of use across restarts
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Stores a frame, unless a frame with the same key is cached already.
+     *
+     * @param frame an ARGB_8888 bitmap.
+     */
+    public synchronized void put(final String key, final Bitmap frame) {
+        load();
+        final long size = byteCount(frame);
+        if (entries.containsKey(key) || size > maxBytes || frame.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        trimToSize(maxBytes - size);
+        final File temp = new File(directory, key + TEMP_SUFFIX);
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try {
+                raf.setLength(size);
+                final MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                frame.copyPixelsToBuffer(mapped);
+            } finally {
+                raf.close();
+            }
+            // renamed once complete, a crash never leaves half a frame behind
+            if (!temp.renameTo(new File(directory, key))) {
+                throw new IOException("cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write frame " + key, e);
+            temp.delete();
+            return;
+        }
+        entries.put(key, size);
+        bytes += size;
+    }
+
+    /**
+     * Deletes all frames.
+     */
+    public synchronized void clear() {
+        load();
+        trimToSize(0);
+    }
+
+    /**
+     * @return the disk space the frames take.
+     */
+    public synchronized long getByteCount() {
+        load();
+        return bytes;
+    }
+
+    /**
+     * Deletes the least recently used frames until the cache takes at most the given space.
+     */
+    private void trimToSize(final long maxSize) {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (bytes > maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            bytes -= entry.getValue();
+            new File(directory, entry.getKey()).delete();
+        }
+    }
+
+    private void remove(final String key) {
+        final Long size = entries.remove(key);
+        if (size != null) {
+            bytes -= size;
+        }
+        new File(directory, key).delete();
+    }
+
+    /**
+     * Reads the frames that have been stored before, in the order they have been used.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "cannot create " + directory);
+            return;
+        }
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                final long left = lhs.lastModified();
+                final long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (final File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // left behind by a write that did not complete
+                file.delete();
+                continue;
+            }
+            entries.put(file.getName(), file.length());
+            bytes += file.length();
+        }
+        trimToSize(maxBytes);
+    }
+
+    private static long byteCount(final Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,103 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gets the bitmap behind a {@link Drawable}.
+ */
+public final class DrawableBitmaps {
+
+    /**
+     * The {@code getBitmap} method of every drawable class seen so far, {@code null} for
+     * classes that do not have one.
+     */
+    private static final Map<Class<?>, Method> ACCESSORS = new HashMap<>();
+
+    private DrawableBitmaps() {
+    }
+
+    /**
+     * Returns the bitmap a drawable stores. Besides {@link BitmapDrawable} this works for every
+     * drawable with a public {@code getBitmap()} method, e.g. the ones of image loaders. The
+     * method is looked up once per drawable class.
+     *
+     * @return the bitmap, {@code null} if the drawable does not store one.
+     */
+    @Nullable
+    public static Bitmap getBitmap(@NonNull final Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            return ((BitmapDrawable) drawable).getBitmap();
+        }
+        final Method getBitmapMethod = getAccessor(drawable.getClass());
+        if (getBitmapMethod == null) {
+            return null;
+        }
+        try {
+            return (Bitmap) getBitmapMethod.invoke(drawable);
+        } catch (InvocationTargetException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Draws a drawable over the whole target, which is cleared first. The bounds of the
+     * drawable are restored afterwards.
+     */
+    public static void rasterize(@NonNull final Drawable drawable, @NonNull final Bitmap target) {
+        final Rect bounds = drawable.copyBounds();
+        target.eraseColor(Color.TRANSPARENT);
+        drawable.setBounds(0, 0, target.getWidth(), target.getHeight());
+        drawable.draw(new Canvas(target));
+        drawable.setBounds(bounds);
+    }
+
+    @Nullable
+    private static Method getAccessor(final Class<?> drawableClass) {
+        synchronized (ACCESSORS) {
+            if (ACCESSORS.containsKey(drawableClass)) {
+                return ACCESSORS.get(drawableClass);
+            }
+            Method getBitmapMethod;
+            try {
+                getBitmapMethod = drawableClass.getMethod("getBitmap");
+                if (!Bitmap.class.isAssignableFrom(getBitmapMethod.getReturnType())) {
+                    getBitmapMethod = null;
+                }
+            } catch (NoSuchMethodException e) {
+                getBitmapMethod = null;
+            }
+            ACCESSORS.put(drawableClass, getBitmapMethod);
+            return getBitmapMethod;
+        }
+    }
+}
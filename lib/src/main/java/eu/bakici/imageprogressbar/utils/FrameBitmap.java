@@ -0,0 +1,106 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted frame. The indicator that renders it, the {@link FrameHandoff} and the
+ * view that shows it each hold a reference. When the last reference is released, a pooled
+ * bitmap goes back to its {@link BitmapPool}, so no bitmap is reused or recycled while
+ * someone still draws it.
+ */
+public final class FrameBitmap {
+
+    private final Bitmap bitmap;
+
+    /**
+     * The pool the bitmap goes back to, {@code null} if it is owned by someone else.
+     */
+    private final BitmapPool pool;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private FrameBitmap(final Bitmap bitmap, final BitmapPool pool) {
+        this.bitmap = bitmap;
+        this.pool = pool;
+    }
+
+    /**
+     * Takes a bitmap from the pool. The caller holds the only reference.
+     */
+    public static FrameBitmap obtain(final BitmapPool pool, final int width, final int height) {
+        return new FrameBitmap(pool.obtain(width, height), pool);
+    }
+
+    /**
+     * Takes over a bitmap that was not obtained from the pool, e.g. one decoded into a pooled
+     * bitmap. It goes to the pool when the last reference is released.
+     */
+    public static FrameBitmap adopt(final BitmapPool pool, final Bitmap bitmap) {
+        return new FrameBitmap(bitmap, pool);
+    }
+
+    /**
+     * Wraps a bitmap owned by someone else. It is left alone when the last reference is released.
+     */
+    public static FrameBitmap wrap(final Bitmap bitmap) {
+        return new FrameBitmap(bitmap, null);
+    }
+
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * Adds a reference if the frame has not been released yet.
+     *
+     * @return false if the last reference is already gone.
+     */
+    public boolean tryRetain() {
+        while (true) {
+            final int count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops a reference. The last one puts the bitmap back into its pool.
+     */
+    public void release() {
+        final int count = references.decrementAndGet();
+        if (count == 0 && pool != null) {
+            pool.release(bitmap);
+        } else if (count < 0) {
+            throw new IllegalStateException("frame released too often");
+        }
+    }
+
+    /**
+     * @return true if someone besides the caller holds a reference, assuming the caller holds one.
+     */
+    public boolean isShared() {
+        return references.get() > 1;
+    }
+}
@@ -0,0 +1,193 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands completed frames from one render thread to the main thread without locks.
+ * <p>
+ * The render thread renders into a back buffer and {@link #publish(FrameBitmap) publishes}
+ * it as the new front frame. The main thread {@link #acquire() acquires} the front frame
+ * before it shows it and releases it once another frame is shown. The handoff and the main
+ * thread hold a reference on their frames, so a render thread may render into a buffer
+ * again as soon as it is not {@link FrameBitmap#isShared() shared}, and a frame never
+ * changes while it is on screen.
+ */
+public final class FrameHandoff {
+
+    /**
+     * The number of frames whose changed regions each frame remembers.
+     */
+    private static final int DIRTY_HISTORY = 8;
+
+    /**
+     * Marks the regions of frames that have not been published through this handoff.
+     */
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    /**
+     * A published frame. Immutable.
+     */
+    public static final class Frame {
+
+        private final FrameBitmap content;
+        private final long version;
+
+        /**
+         * The regions this frame and the ones before changed (left, top, right and bottom),
+         * the newest first.
+         */
+        private final int[] dirty;
+
+        Frame(final FrameBitmap content, final long version, final int[] dirty) {
+            this.content = content;
+            this.version = version;
+            this.dirty = dirty;
+        }
+
+        public FrameBitmap getContent() {
+            return content;
+        }
+
+        /**
+         * @return the number of frames published before and including this one.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Computes the region that differs between this frame and an older one, so that only
+         * that region has to be drawn again.
+         *
+         * @param olderVersion the version of the older frame.
+         * @param out          receives the region, empty if nothing has changed.
+         * @return false if the older frame is too old to know.
+         */
+        public boolean getDirtySince(final long olderVersion, final Rect out) {
+            final long count = version - olderVersion;
+            if (olderVersion <= 0 || count > DIRTY_HISTORY || count < 0) {
+                return false;
+            }
+            out.set(0, 0, 0, 0);
+            for (int i = 0; i < count; i++) {
+                final int offset = i * 4;
+                if (dirty[offset] == UNKNOWN) {
+                    return false;
+                }
+                if (dirty[offset] < dirty[offset + 2] && dirty[offset + 1] < dirty[offset + 3]) {
+                    if (out.left >= out.right || out.top >= out.bottom) {
+                        out.set(dirty[offset], dirty[offset + 1], dirty[offset + 2], dirty[offset + 3]);
+                    } else {
+                        out.union(dirty[offset], dirty[offset + 1], dirty[offset + 2], dirty[offset + 3]);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private final AtomicReference<Frame> front = new AtomicReference<>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    /**
+     * Same as {@link #publish(FrameBitmap, int, int, int, int)} for a frame that may differ
+     * everywhere from the one before.
+     */
+    public Frame publish(final FrameBitmap content) {
+        final Bitmap bitmap = content.getBitmap();
+        return publish(content, 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * Called by the render thread when a frame is complete. The handoff takes its own
+     * reference, the content must not be modified afterwards while it is shared. Only one
+     * thread may publish at a time.
+     *
+     * @return the published frame.
+     */
+    public Frame publish(final FrameBitmap content, final int left, final int top, final int right, final int bottom) {
+        if (!content.tryRetain()) {
+            throw new IllegalStateException("frame has already been released");
+        }
+        final int[] dirty = new int[DIRTY_HISTORY * 4];
+        final Frame last = front.get();
+        if (last != null) {
+            System.arraycopy(last.dirty, 0, dirty, 4, dirty.length - 4);
+        } else {
+            // the frames before have been cleared, or there are none
+            Arrays.fill(dirty, 4, dirty.length, UNKNOWN);
+        }
+        dirty[0] = left;
+        dirty[1] = top;
+        dirty[2] = right;
+        dirty[3] = bottom;
+        final Frame frame = new Frame(content, versions.incrementAndGet(), dirty);
+        final Frame previous = front.getAndSet(frame);
+        if (previous != null) {
+            previous.content.release();
+        }
+        return frame;
+    }
+
+    /**
+     * Called by the main thread before it shows the front frame. The caller gets a reference
+     * on the content and has to release it when the frame is not shown anymore.
+     *
+     * @return the front frame, {@code null} if nothing has been published yet.
+     */
+    public Frame acquire() {
+        while (true) {
+            final Frame frame = front.get();
+            if (frame == null) {
+                return null;
+            }
+            if (frame.content.tryRetain()) {
+                if (front.get() == frame) {
+                    return frame;
+                }
+                // replaced in the meantime, the render thread may already reuse it
+                frame.content.release();
+            }
+        }
+    }
+
+    /**
+     * @return the front frame without a reference, {@code null} if nothing has been published yet.
+     * Its content may be reused as soon as a newer frame is published.
+     */
+    public Frame peek() {
+        return front.get();
+    }
+
+    /**
+     * Drops the front frame.
+     */
+    public void clear() {
+        final Frame previous = front.getAndSet(null);
+        if (previous != null) {
+            previous.content.release();
+        }
+    }
+}
@@ -18,33 +18,58 @@ package eu.bakici.imageprogressbar.utils;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
+
+import eu.bakici.imageprogressbar.raster.IntRaster;
+import eu.bakici.imageprogressbar.raster.Raster;
+import eu.bakici.imageprogressbar.raster.RasterOps;
 
 public final class IndicatorUtils {
 
     public static int calcPercent(final int value, final int percent) {
-        final float p = (float) percent;
-        final float p100 = p / 100;
-        return Math.round(value * p100);
+        return RasterOps.calcPercent(value, percent);
     }
 
     public static Bitmap convertGrayscale(final Bitmap source) {
-        final int width = source.getWidth();
-        final int height = source.getHeight();
-        final Bitmap output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        final Canvas canvas = new Canvas(output);
-        final Paint paint = new Paint();
-        final ColorMatrix matrix = new ColorMatrix();
-        matrix.setSaturation(0f);
-        paint.setColorFilter(new ColorMatrixColorFilter(matrix));
-        canvas.drawBitmap(source, 0, 0, paint);
-        return output;
+        final IntRaster gray = new IntRaster(source.getWidth(), source.getHeight());
+        RasterOps.grayscale(asRaster(source), gray);
+        return createBitmap(gray);
     }
 
     public static Canvas createCanvasFromBitmap(Bitmap source) {
         Bitmap bitmap = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
         return new Canvas(bitmap);
     }
+
+    public static Raster asRaster(final Bitmap bitmap) {
+        return new BitmapRaster(bitmap);
+    }
+
+    /**
+     * Creates a mutable bitmap with the pixels of the given raster.
+     */
+    public static Bitmap createBitmap(final IntRaster raster) {
+        final Bitmap output = Bitmap.createBitmap(raster.getWidth(), raster.getHeight(), Bitmap.Config.ARGB_8888);
+        copyToBitmap(raster, output);
+        return output;
+    }
+
+    /**
+     * Writes all pixels of the raster into a mutable bitmap of the same size.
+     */
+    public static void copyToBitmap(final IntRaster raster, final Bitmap bitmap) {
+        final int width = raster.getWidth();
+        bitmap.setPixels(raster.getData(), 0, width, 0, 0, width, raster.getHeight());
+    }
+
+    /**
+     * Writes a region of the raster into the same region of a mutable bitmap.
+     */
+    public static void copyToBitmap(final IntRaster raster, final Bitmap bitmap,
+                                    final int left, final int top, final int right, final int bottom) {
+        if (right <= left || bottom <= top) {
+            return;
+        }
+        final int width = raster.getWidth();
+        bitmap.setPixels(raster.getData(), top * width + left, width, left, top, right - left, bottom - top);
+    }
 }
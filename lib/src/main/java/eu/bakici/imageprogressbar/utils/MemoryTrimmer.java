@@ -0,0 +1,236 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Gives memory back when the system asks for it. The caches of the library are released in
+ * the order of how cheap they are to rebuild: pooled frames first, then prepared indicators,
+ * then precomputed frames. While memory is critical, views prepare their indicators on
+ * bitmaps scaled down to the view size, and go back to the full size once it has recovered.
+ * <p>
+ * The views register the application with {@link #register(Context)}. Before API 14 the
+ * app has to forward its own callbacks to {@link #trimMemory(int)}.
+ */
+public final class MemoryTrimmer {
+
+    /**
+     * A cache that can give memory back.
+     */
+    public interface Trimmable {
+
+        /**
+         * Called on the main thread with a level of {@link ComponentCallbacks2}.
+         */
+        void onTrimMemory(int level);
+    }
+
+    /**
+     * A cache that gives up quality while memory is critical and restores it afterwards.
+     */
+    public interface Restorable extends Trimmable {
+
+        /**
+         * Called on the main thread once memory is no longer critical, see {@link #isLowMemory()}.
+         */
+        void onMemoryRecovered();
+    }
+
+    /**
+     * The system does not report when memory has recovered, without a lower level it is
+     * assumed to have recovered after this time.
+     */
+    static final long LOW_MEMORY_TIMEOUT_MS = 60 * 1000;
+
+    private static final List<WeakReference<Trimmable>> TRIMMABLES = new ArrayList<>();
+
+    private static boolean registered;
+
+    private static volatile boolean lowMemory;
+
+    private static Handler handler;
+
+    private static final Runnable RECOVER_RUNNABLE = new Runnable() {
+        @Override
+        public void run() {
+            recover();
+        }
+    };
+
+    private static final ComponentCallbacks2 CALLBACKS = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(final int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(final Configuration newConfig) {
+            // not related to memory
+        }
+    };
+
+    private MemoryTrimmer() {
+    }
+
+    /**
+     * Listens to the memory callbacks of the application the context belongs to. Only the
+     * first call registers.
+     */
+    public static synchronized void register(final Context context) {
+        if (registered || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        registered = true;
+        context.getApplicationContext().registerComponentCallbacks(CALLBACKS);
+    }
+
+    /**
+     * Adds a cache that is trimmed with the others. It is only weakly referenced, the caller
+     * keeps it alive.
+     */
+    public static synchronized void add(final Trimmable trimmable) {
+        TRIMMABLES.add(new WeakReference<>(trimmable));
+    }
+
+    public static synchronized void remove(final Trimmable trimmable) {
+        final Iterator<WeakReference<Trimmable>> iterator = TRIMMABLES.iterator();
+        while (iterator.hasNext()) {
+            final Trimmable current = iterator.next().get();
+            if (current == null || current == trimmable) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Releases memory for the given level of {@link ComponentCallbacks2}. Must be called on
+     * the main thread.
+     */
+    public static void trimMemory(final int level) {
+        final boolean recovered;
+        if (isCritical(level)) {
+            lowMemory = true;
+            recovered = false;
+            if (handler == null) {
+                handler = new Handler(Looper.getMainLooper());
+            }
+            handler.removeCallbacks(RECOVER_RUNNABLE);
+            handler.postDelayed(RECOVER_RUNNABLE, LOW_MEMORY_TIMEOUT_MS);
+        } else if (lowMemory && (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)) {
+            // the foreground levels below critical, hiding the UI says nothing about memory
+            lowMemory = false;
+            recovered = true;
+            handler.removeCallbacks(RECOVER_RUNNABLE);
+        } else {
+            recovered = false;
+        }
+        final BitmapPool pool = BitmapPool.getInstance();
+        pool.trimToSize(releasesPrepared(level) ? 0 : pool.getByteCount() / 2);
+        // called outside the lock, a cache may add or remove others while it trims
+        for (final Trimmable trimmable : getTrimmables()) {
+            trimmable.onTrimMemory(level);
+        }
+        if (recovered) {
+            dispatchRecovered();
+        }
+    }
+
+    private static void recover() {
+        if (lowMemory) {
+            lowMemory = false;
+            dispatchRecovered();
+        }
+    }
+
+    private static void dispatchRecovered() {
+        for (final Trimmable trimmable : getTrimmables()) {
+            if (trimmable instanceof Restorable) {
+                ((Restorable) trimmable).onMemoryRecovered();
+            }
+        }
+    }
+
+    private static synchronized List<Trimmable> getTrimmables() {
+        final List<Trimmable> trimmables = new ArrayList<>();
+        final Iterator<WeakReference<Trimmable>> iterator = TRIMMABLES.iterator();
+        while (iterator.hasNext()) {
+            final Trimmable trimmable = iterator.next().get();
+            if (trimmable == null) {
+                iterator.remove();
+            } else {
+                trimmables.add(trimmable);
+            }
+        }
+        return trimmables;
+    }
+
+    private static boolean isCritical(final int level) {
+        return level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level == ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+    }
+
+    /**
+     * @return true if indicators that have been prepared ahead of time should be dropped:
+     * when memory runs low in the foreground, and in the background once the process is
+     * about to be killed.
+     */
+    public static boolean releasesPrepared(final int level) {
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if precomputed frames should be dropped in favor of rendering live, only
+     * when memory is critical.
+     */
+    public static boolean releasesPrecomputed(final int level) {
+        return isCritical(level);
+    }
+
+    /**
+     * @return true while memory is critical: since the last critical level, until a lower
+     * foreground level is reported or {@link #LOW_MEMORY_TIMEOUT_MS} have passed. Views work
+     * on smaller bitmaps and nothing is precomputed then.
+     */
+    public static boolean isLowMemory() {
+        return lowMemory;
+    }
+}
@@ -0,0 +1,46 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Tells the {@link RenderPolicy} whether the device saves power. The library reads the
+ * {@code PowerManager}, apps and tests may set their own source with
+ * {@link RenderPolicy#setPowerStateSource(PowerStateSource)}.
+ * <p>
+ * Both methods are called on the render threads for every frame and must be cheap.
+ */
+public interface PowerStateSource {
+
+    /**
+     * The thermal status values of the {@code PowerManager}.
+     */
+    int THERMAL_STATUS_NONE = 0;
+    int THERMAL_STATUS_LIGHT = 1;
+    int THERMAL_STATUS_MODERATE = 2;
+    int THERMAL_STATUS_SEVERE = 3;
+    int THERMAL_STATUS_CRITICAL = 4;
+
+    /**
+     * @return true while battery saver is on.
+     */
+    boolean isPowerSaveMode();
+
+    /**
+     * @return the thermal status, one of the {@code THERMAL_STATUS} values or a higher one.
+     */
+    int getThermalStatus();
+}
@@ -0,0 +1,124 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Decides how much the progress animations may cost while the device saves power. In battery
+ * saver or when the device gets hot, the views render less often and the asynchronous
+ * indicators render at a lower resolution, which also lowers the precision of the blur.
+ * <p>
+ * Apps change the behavior by overriding the policy and setting it with
+ * {@link #setPolicy(RenderPolicy)}. The state of the device comes from a
+ * {@link PowerStateSource}, which can be replaced, e.g. by a fake one in tests.
+ */
+public class RenderPolicy {
+
+    private static final PowerStateSource NO_POWER_STATE = new PowerStateSource() {
+        @Override
+        public boolean isPowerSaveMode() {
+            return false;
+        }
+
+        @Override
+        public int getThermalStatus() {
+            return THERMAL_STATUS_NONE;
+        }
+    };
+
+    private static volatile RenderPolicy policy = new RenderPolicy();
+
+    private static volatile PowerStateSource powerState = NO_POWER_STATE;
+
+    /**
+     * Reads the power state of the device the context belongs to, unless a source has been
+     * set already. Battery saver is known from API 21 on, the thermal status from API 29 on.
+     */
+    public static synchronized void register(final Context context) {
+        if (powerState != NO_POWER_STATE || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        powerState = new SystemPowerStateSource(context.getApplicationContext());
+    }
+
+    public static void setPolicy(final RenderPolicy renderPolicy) {
+        policy = renderPolicy;
+    }
+
+    public static RenderPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param source the state of the device, {@code null} to assume it does not save power.
+     */
+    public static synchronized void setPowerStateSource(final PowerStateSource source) {
+        powerState = source != null ? source : NO_POWER_STATE;
+    }
+
+    /**
+     * @return the factor the CPU share of the views is multiplied with right now.
+     */
+    public static float getCurrentCpuShareFactor() {
+        return policy.getCpuShareFactor(powerState);
+    }
+
+    /**
+     * @return the factor the resolution of the frames is divided by at least right now.
+     */
+    public static int getCurrentMinScale() {
+        return policy.getMinScale(powerState);
+    }
+
+    /**
+     * Called for every render, on any thread.
+     *
+     * @return the factor the CPU share of the views is multiplied with, from 0 (exclusive)
+     * to 1. By default a half in battery saver or at a moderate thermal status and a quarter
+     * from a severe status on.
+     */
+    public float getCpuShareFactor(final PowerStateSource state) {
+        final int thermal = state.getThermalStatus();
+        if (thermal >= PowerStateSource.THERMAL_STATUS_SEVERE) {
+            return 0.25f;
+        }
+        if (state.isPowerSaveMode() || thermal >= PowerStateSource.THERMAL_STATUS_MODERATE) {
+            return 0.5f;
+        }
+        return 1;
+    }
+
+    /**
+     * Called for every render, on any thread.
+     *
+     * @return the factor the resolution of the frames of asynchronous indicators is divided
+     * by at least, 1, 2 or 4. By default half the resolution in battery saver or at a
+     * moderate thermal status and a quarter from a severe status on.
+     */
+    public int getMinScale(final PowerStateSource state) {
+        final int thermal = state.getThermalStatus();
+        if (thermal >= PowerStateSource.THERMAL_STATUS_SEVERE) {
+            return 4;
+        }
+        if (state.isPowerSaveMode() || thermal >= PowerStateSource.THERMAL_STATUS_MODERATE) {
+            return 2;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,106 @@
+package eu.bakici.imageprogressbar.utils;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+/**
+ * The power state of the device from the {@link PowerManager}. Battery saver is followed
+ * with its broadcast. The thermal status is read at most every {@link #THERMAL_POLL_MS},
+ * through reflection because it is newer than the SDK the library compiles against.
+ */
+final class SystemPowerStateSource implements PowerStateSource {
+
+    private static final String TAG = SystemPowerStateSource.class.getSimpleName();
+
+    private static final long THERMAL_POLL_MS = 5000;
+
+    /**
+     * {@code Build.VERSION_CODES.Q}, the first version with a thermal status.
+     */
+    private static final int THERMAL_STATUS_SDK = 29;
+
+    private final PowerManager powerManager;
+
+    private volatile boolean powerSaveMode;
+
+    private volatile int thermalStatus = THERMAL_STATUS_NONE;
+
+    /**
+     * {@code PowerManager#getCurrentThermalStatus()}, {@code null} if it is not available.
+     */
+    private final Method thermalStatusMethod;
+
+    private volatile long nextThermalPoll;
+
+    @SuppressLint("NewApi")
+    SystemPowerStateSource(final Context context) {
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        powerSaveMode = powerManager.isPowerSaveMode();
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(final Context context, final Intent intent) {
+                powerSaveMode = powerManager.isPowerSaveMode();
+            }
+        }, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+        thermalStatusMethod = findThermalStatusMethod();
+    }
+
+    @Override
+    public boolean isPowerSaveMode() {
+        return powerSaveMode;
+    }
+
+    @Override
+    public int getThermalStatus() {
+        if (thermalStatusMethod == null) {
+            return THERMAL_STATUS_NONE;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        if (now >= nextThermalPoll) {
+            // a binder call, render threads that race here poll twice, which does no harm
+            nextThermalPoll = now + THERMAL_POLL_MS;
+            try {
+                thermalStatus = (Integer) thermalStatusMethod.invoke(powerManager);
+            } catch (Exception e) {
+                Log.w(TAG, "reading the thermal status failed", e);
+            }
+        }
+        return thermalStatus;
+    }
+
+    private static Method findThermalStatusMethod() {
+        if (Build.VERSION.SDK_INT < THERMAL_STATUS_SDK) {
+            return null;
+        }
+        try {
+            return PowerManager.class.getMethod("getCurrentThermalStatus");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package eu.bakici.imageprogressbar.indicator;
+
+/*
+ * Copyright (C) 2016 Hayri Bakici
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import eu.bakici.imageprogressbar.raster.CancellationToken;
+import eu.bakici.imageprogressbar.utils.BitmapPool;
+import eu.bakici.imageprogressbar.utils.FrameBitmap;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the built-in raster indicators the way the view does, progress call, frame handoff
+ * and the frame on screen, and fails when a progress step allocates a bitmap. Pooled
+ * bitmaps are counted as misses of the {@link BitmapPool}, bitmaps created around the pool
+ * show up in the allocated bytes. The renderers themselves are checked more strictly on a
+ * plain JVM by the {@code FrameBudgetTest} of the benchmark module.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class FrameBudgetTest {
+
+    private static final int WIDTH = 320;
+
+    private static final int HEIGHT = 240;
+
+    private static final int JUMPS = 100;
+
+    private static final long SEED = 7;
+
+    /**
+     * Bytes a progress step may allocate, a quarter of a frame. A new bitmap takes a whole one.
+     */
+    private static final long MAX_BYTES_PER_STEP = (long) WIDTH * HEIGHT;
+
+    /**
+     * The memory the precomputed frames of the {@link TimelineIndicator} may take.
+     */
+    private static final long MAX_TIMELINE_BYTES = 16L * 1024 * 1024;
+
+    private static final HybridIndicator.OnProgressIndicationUpdatedListener NO_LISTENER =
+            new HybridIndicator.OnProgressIndicationUpdatedListener() {
+                @Override
+                public void onProgressIndicationUpdated(final Bitmap bitmap) {
+                    // the test acquires the frames itself
+                }
+            };
+
+    private Bitmap original;
+
+    @Before
+    public void setUp() {
+        original = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        final Random random = new Random(SEED);
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        original.setPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void colorFill() {
+        assertWithinBudget("ColorFill", new ColorFillIndicator(ColorFillIndicator.PROGRESS_DIRECTION_HORIZONTAL_LEFT_RIGHT));
+    }
+
+    @Test
+    public void alpha() {
+        assertWithinBudget("Alpha", new AlphaIndicator());
+    }
+
+    @Test
+    public void circular() {
+        assertWithinBudget("Circular", new CircularIndicator());
+    }
+
+    @Test
+    public void pixelize() {
+        final PixelizeIndicator indicator = new PixelizeIndicator(RuntimeEnvironment.application);
+        // the coarse frames depend on the speed of the machine, the full ones are checked
+        indicator.setFrameBudget(0);
+        assertWithinBudget("Pixelize", indicator);
+    }
+
+    /**
+     * The StackBlur path, RenderScript does not run on the JVM. The intrinsic path blurs into
+     * the same pooled bitmaps.
+     */
+    @Test
+    @Config(sdk = 16, manifest = Config.NONE)
+    public void blur() {
+        final BlurIndicator indicator = new BlurIndicator(RuntimeEnvironment.application);
+        indicator.setFrameBudget(0);
+        assertWithinBudget("Blur", indicator);
+    }
+
+    @Test
+    public void randomBlock() {
+        assertWithinBudget("RandomBlock", new RandomBlockIndicator());
+    }
+
+    @Test
+    public void timeline() {
+        final PixelizeIndicator pixelize = new PixelizeIndicator(RuntimeEnvironment.application);
+        final TimelineIndicator indicator = new TimelineIndicator(pixelize, MAX_TIMELINE_BYTES);
+        assertWithinBudget("Timeline", indicator);
+        assertTrue("Timeline: rendered live", indicator.getTimelineByteCount() > 0);
+    }
+
+    private void assertWithinBudget(final String name, final ProgressIndicator indicator) {
+        final float[] progress = progressSequence();
+        indicator.onPreProgress(original, CancellationToken.NONE);
+        FrameBitmap shown = indicator.acquireFrame();
+        assertNotNull(name + ": no frame after the pre progress", shown);
+
+        // warm-up, the output bitmaps are taken from the pool here
+        for (final float fraction : progress) {
+            shown = step(indicator, fraction, shown);
+        }
+
+        final BitmapPool pool = BitmapPool.getInstance();
+        final long missesBefore = pool.getMissCount();
+        long maxBytes = 0;
+        for (final float fraction : progress) {
+            final long bytesBefore = allocatedBytes();
+            shown = step(indicator, fraction, shown);
+            maxBytes = Math.max(maxBytes, allocatedBytes() - bytesBefore);
+        }
+        final long misses = pool.getMissCount() - missesBefore;
+        shown.release();
+        indicator.cleanUp();
+
+        assertTrue(name + ": " + misses + " progress steps allocated a pooled bitmap", misses == 0);
+        assertTrue(name + ": a progress step allocated " + maxBytes + " bytes, the budget is "
+                + MAX_BYTES_PER_STEP, maxBytes <= MAX_BYTES_PER_STEP);
+    }
+
+    /**
+     * Renders a progress and shows the frame like the view, the previous one is released.
+     * Hybrid indicators reveal their blocks on their own thread, its messages are run here.
+     */
+    private FrameBitmap step(final ProgressIndicator indicator, final float fraction, final FrameBitmap shown) {
+        if (indicator instanceof RandomBlockIndicator) {
+            final RandomBlockIndicator hybrid = (RandomBlockIndicator) indicator;
+            hybrid.onProgressFraction(original, fraction, NO_LISTENER);
+            Shadows.shadowOf(hybrid.getCatchUpLooper()).idle();
+        } else {
+            indicator.onProgressFraction(original, fraction, CancellationToken.NONE);
+        }
+        final FrameBitmap frame = indicator.acquireFrame();
+        if (frame == null || frame == shown) {
+            if (frame != null) {
+                frame.release();
+            }
+            return shown;
+        }
+        shown.release();
+        return frame;
+    }
+
+    /**
+     * 0 to 1 in percent steps, followed by random jumps forth and back.
+     */
+    private static float[] progressSequence() {
+        final float[] progress = new float[101 + JUMPS];
+        for (int i = 0; i <= 100; i++) {
+            progress[i] = i / 100f;
+        }
+        final Random random = new Random(SEED);
+        for (int i = 101; i < progress.length; i++) {
+            progress[i] = random.nextFloat();
+        }
+        return progress;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}